@@ -0,0 +1,55 @@
+package com.sds.phucth.chatstoragearch.bench;
+
+import com.sds.phucth.chatstoragearch.dto.ChatRecord;
+import com.sds.phucth.chatstoragearch.utils.CanonicalEncoder;
+import com.sds.phucth.chatstoragearch.utils.CanonicalJson;
+import com.sds.phucth.chatstoragearch.utils.Hashing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Đường ghi L0: chuẩn hoá JSON, SHA-256 và cả pass gộp của CanonicalEncoder. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanonicalBench {
+    @Param({"SHORT_TEXT", "TOOL_OUTPUT", "DEEP_META"})
+    RecordShapes shape;
+
+    ChatRecord record;
+    byte[] canonical;
+
+    @Setup
+    public void setup() {
+        record = shape.record(42);
+        canonical = CanonicalJson.toCanonicalBytes(record);
+    }
+
+    @Benchmark
+    public byte[] toCanonicalBytes() {
+        return CanonicalJson.toCanonicalBytes(record);
+    }
+
+    @Benchmark
+    public String sha256Hex() {
+        return Hashing.sha256Hex(canonical);
+    }
+
+    @Benchmark
+    public CanonicalEncoder.Encoded encodeLevel6() {
+        return CanonicalEncoder.encode(record, 6);
+    }
+}
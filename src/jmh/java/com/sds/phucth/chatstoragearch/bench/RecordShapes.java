@@ -0,0 +1,93 @@
+package com.sds.phucth.chatstoragearch.bench;
+
+import com.sds.phucth.chatstoragearch.dto.ChatRecord;
+import com.sds.phucth.chatstoragearch.utils.CanonicalJson;
+import com.sds.phucth.chatstoragearch.utils.Ulids;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Record mẫu cho benchmark, gần với dữ liệu thật:
+ * SHORT_TEXT = tin nhắn chat ngắn, TOOL_OUTPUT = body JSON lớn (~64KB) từ tool,
+ * DEEP_META = body ngắn nhưng meta lồng nhiều tầng.
+ * Dữ liệu sinh từ seed cố định -> kết quả so sánh được giữa các phiên bản.
+ */
+public enum RecordShapes {
+    SHORT_TEXT,
+    TOOL_OUTPUT,
+    DEEP_META;
+
+    private static final String[] WORDS = {
+            "message", "storage", "segment", "compaction", "reader", "window", "cursor", "tenant",
+            "xin", "chào", "bạn", "hôm", "nay", "thế", "nào", "ok", "🙂", "deploy", "error", "retry"
+    };
+
+    public ChatRecord record(long seq) {
+        Random rnd = new Random(31L * ordinal() + seq);
+        return ChatRecord.builder()
+                .msgId(Ulids.newUlid())
+                .conversationId("conv-bench-0001")
+                .seq(seq)
+                .role(this == TOOL_OUTPUT ? "tool" : seq % 2 == 0 ? "user" : "assistant")
+                .body(switch (this) {
+                    case SHORT_TEXT, DEEP_META -> sentence(rnd, 8 + rnd.nextInt(24));
+                    case TOOL_OUTPUT -> toolOutput(rnd, 64 * 1024);
+                })
+                .meta(this == DEEP_META ? deepMeta(rnd, 5, 4) : Map.of("client", "web", "locale", "vi-VN"))
+                .createdAt(OffsetDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).plusSeconds(seq))
+                .build();
+    }
+
+    /** Canonical JSON của count record liên tiếp (dữ liệu đầu vào của nén / dựng segment). */
+    public List<byte[]> canonicalRecords(int count) {
+        List<byte[]> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            out.add(CanonicalJson.toCanonicalBytes(record(i + 1)));
+        }
+        return out;
+    }
+
+    private static String sentence(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // dạng kết quả tool hay gặp: danh sách row có cột lặp lại + vài chuỗi dài
+    private static Map<String, Object> toolOutput(Random rnd, int approxBytes) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        int size = 0;
+        while (size < approxBytes) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", rnd.nextInt(1_000_000));
+            row.put("path", "/srv/app/" + WORDS[rnd.nextInt(WORDS.length)] + "/" + rnd.nextInt(1000) + ".log");
+            row.put("status", rnd.nextBoolean() ? "ok" : "failed");
+            row.put("latencyMs", rnd.nextDouble() * 250);
+            row.put("line", sentence(rnd, 12));
+            rows.add(row);
+            size += 140;
+        }
+        return Map.of("tool", "search_logs", "exitCode", 0, "rows", rows, "truncated", false);
+    }
+
+    private static Map<String, Object> deepMeta(Random rnd, int depth, int fanOut) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < fanOut; i++) {
+            String key = WORDS[rnd.nextInt(WORDS.length)] + "_" + i;
+            map.put(key, depth <= 1 ? sentence(rnd, 3) : deepMeta(rnd, depth - 1, fanOut - (i % 2)));
+        }
+        map.put("n", rnd.nextInt(100));
+        return map;
+    }
+}
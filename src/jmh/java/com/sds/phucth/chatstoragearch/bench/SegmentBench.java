@@ -0,0 +1,155 @@
+package com.sds.phucth.chatstoragearch.bench;
+
+import com.sds.phucth.chatstoragearch.consts.SegmentConstants;
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.dto.SegmentIndex;
+import com.sds.phucth.chatstoragearch.dto.Slice;
+import com.sds.phucth.chatstoragearch.utils.SegmentFooter;
+import com.sds.phucth.chatstoragearch.utils.SegmentRanges;
+import com.sds.phucth.chatstoragearch.utils.Ulids;
+import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dựng segment block-packed như compactGroup (JSONL -> 1 frame zstd level 9 / block, footer nhị phân)
+ * và phía đọc: gộp range từ slice rồi cắt + giải nén từng record từ block đã fetch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentBench {
+    private static final int RECORDS_PER_BLOCK = 64;
+    private static final int BLOCK_MAX_BYTES = 262144;
+
+    @Param({"SHORT_TEXT", "TOOL_OUTPUT", "DEEP_META"})
+    RecordShapes shape;
+
+    @Param({"512"})
+    int records;
+
+    List<byte[]> plain;
+    ByteBuffer segment;
+    List<IndexEntry> entries;
+    List<Slice> window;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        plain = shape.canonicalRecords(records);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entries = new ArrayList<>();
+        SegmentIndex index = assemble(out, entries);
+        segment = ByteBuffer.allocateDirect(out.size()).put(out.toByteArray()).flip();
+
+        // 1 trang đọc: 50 record liên tiếp ở vị trí ngẫu nhiên, như readWindow
+        int from = new Random(7).nextInt(Math.max(1, entries.size() - 50));
+        window = entries.subList(from, Math.min(entries.size(), from + 50)).stream()
+                .map(e -> Slice.builder()
+                        .start(e.getOffset())
+                        .length(e.getLength())
+                        .messageId(e.getMsgId())
+                        .recordOffset(e.getRecordOffset())
+                        .recordLength(e.getRecordLength())
+                        .build())
+                .toList();
+        if (index.getEntries().size() != records) {
+            throw new IllegalStateException("Segment assembled " + index.getEntries().size() + " of " + records);
+        }
+    }
+
+    @Benchmark
+    public int assembleSegment() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assemble(out, new ArrayList<>());
+        return out.size();
+    }
+
+    @Benchmark
+    public List<long[]> mergeConsecutiveRanges() {
+        return SegmentRanges.mergeConsecutiveRanges(window);
+    }
+
+    // range-get trả về đúng range đã gộp -> cắt frame theo slice, mỗi block giải nén 1 lần
+    @Benchmark
+    public void extractSlices(Blackhole bh) {
+        List<long[]> ranges = SegmentRanges.mergeConsecutiveRanges(window);
+        long lastBlock = -1;
+        byte[] decoded = null;
+        for (Slice slice : window) {
+            long[] range = SegmentRanges.containing(slice, ranges);
+            ByteBuffer block = segment.slice((int) range[0], (int) (range[1] - range[0] + 1));
+            if (slice.getStart() != lastBlock) {
+                decoded = ZstdCodec.decompress(SegmentRanges.frame(block, range[0], slice));
+                lastBlock = slice.getStart();
+            }
+            bh.consume(Arrays.copyOfRange(decoded, slice.getRecordOffset(),
+                    slice.getRecordOffset() + slice.getRecordLength()));
+        }
+    }
+
+    private SegmentIndex assemble(ByteArrayOutputStream out, List<IndexEntry> idx) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_MAX_BYTES + 4096);
+        List<IndexEntry> blockEntries = new ArrayList<>();
+        for (int i = 0; i < plain.size(); i++) {
+            byte[] json = plain.get(i);
+            blockEntries.add(IndexEntry.builder()
+                    .msgId(Ulids.newUlid())
+                    .seq(i + 1)
+                    .recordOffset(block.size())
+                    .recordLength(json.length)
+                    .createdAt(1_735_689_600_000L + i)
+                    .build());
+            block.writeBytes(json);
+            block.write('\n');
+            if (blockEntries.size() >= RECORDS_PER_BLOCK || block.size() >= BLOCK_MAX_BYTES) {
+                flushBlock(block, blockEntries, out, idx);
+                blockEntries = new ArrayList<>();
+            }
+        }
+        if (!blockEntries.isEmpty()) {
+            flushBlock(block, blockEntries, out, idx);
+        }
+        SegmentIndex index = SegmentIndex.builder()
+                .formatVersion(SegmentConstants.Format.BLOCK_PACKED)
+                .dictId(0L)
+                .entries(idx)
+                .build();
+        out.writeBytes(SegmentFooter.encode(index, out.size()));
+        return index;
+    }
+
+    private static void flushBlock(ByteArrayOutputStream block, List<IndexEntry> blockEntries,
+                                   ByteArrayOutputStream out, List<IndexEntry> idx) {
+        byte[] frame = ZstdCodec.compress(block.toByteArray(), 9);
+        block.reset();
+        long offset = out.size();
+        out.writeBytes(frame);
+        for (IndexEntry e : blockEntries) {
+            e.setOffset(offset);
+            e.setLength(frame.length);
+        }
+        idx.addAll(blockEntries);
+    }
+}
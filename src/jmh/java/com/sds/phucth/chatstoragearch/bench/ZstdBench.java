@@ -0,0 +1,59 @@
+package com.sds.phucth.chatstoragearch.bench;
+
+import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** Nén/giải nén 1 record ở các level đang dùng: 6 cho L0, 9 cho segment. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZstdBench {
+    @Param({"SHORT_TEXT", "TOOL_OUTPUT", "DEEP_META"})
+    RecordShapes shape;
+
+    @Param({"6", "9"})
+    int level;
+
+    byte[] plain;
+    byte[] frame;
+    ByteBuffer directFrame;
+
+    @Setup
+    public void setup() {
+        plain = shape.canonicalRecords(1).get(0);
+        frame = ZstdCodec.compress(plain, level);
+        directFrame = ByteBuffer.allocateDirect(frame.length).put(frame).flip();
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ZstdCodec.compress(plain, level);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return ZstdCodec.decompress(frame);
+    }
+
+    // block từ SegmentBlockCache là direct buffer
+    @Benchmark
+    public byte[] decompressDirect() {
+        return ZstdCodec.decompress(directFrame.duplicate());
+    }
+}
@@ -1,15 +1,24 @@
 package com.sds.phucth.chatstoragearch.config;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,6 +28,12 @@ public class KafkaConfig {
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
+    @Value("${topic.write}")
+    private String writeTopic;
+
+    @Value("${app.liveTail.enabled:true}")
+    private boolean liveTailEnabled;
+
     @Bean
     public ProducerFactory<String, byte[]> producerFactory() {
         Map<String, Object> configProps = new HashMap<>();
@@ -32,4 +47,51 @@ public class KafkaConfig {
     public KafkaTemplate<String, byte[]> kafkaTemplate() {
         return new KafkaTemplate<>(producerFactory());
     }
+
+    @Bean
+    public ConsumerFactory<String, byte[]> consumerFactory() {
+        Map<String, Object> configProps = new HashMap<>();
+        configProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        configProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        configProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return new DefaultKafkaConsumerFactory<>(configProps);
+    }
+
+    // live tail: gán tay mọi partition của topic, không group.id, không commit -> node nào cũng nhận đủ mọi event,
+    // chỉ đọc event mới, và không để lại consumer group nào trên broker khi node id đổi sau mỗi lần restart
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> liveTailListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.getContainerProperties().getKafkaConsumerProperties()
+                .setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        factory.getContainerProperties().getKafkaConsumerProperties()
+                .setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        return factory;
+    }
+
+    // partition của topic.write cho listener live tail (gán tay); live tail tắt thì không hỏi broker
+    @Bean
+    public String[] liveTailPartitions() {
+        if (!liveTailEnabled) {
+            return new String[]{"0"};
+        }
+        try (Consumer<String, byte[]> consumer = consumerFactory().createConsumer()) {
+            return consumer.partitionsFor(writeTopic, Duration.ofSeconds(30)).stream()
+                    .map(p -> Integer.toString(p.partition()))
+                    .toArray(String[]::new);
+        }
+    }
+
+    // compaction queue: 1 group chung cho cả cụm, commit offset tay sau khi đã ghi Redis; lần đầu đọc từ đầu topic
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> compactionListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory());
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().getKafkaConsumerProperties()
+                .setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        return factory;
+    }
 }
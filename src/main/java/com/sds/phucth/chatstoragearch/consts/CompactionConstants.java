@@ -0,0 +1,12 @@
+package com.sds.phucth.chatstoragearch.consts;
+
+public interface CompactionConstants {
+    interface KeyFormat {
+        String LEASE = "compaction:lease:%s";
+        String FENCE = "compaction:fence:%s";
+        String NODES = "compaction:nodes";
+        String PENDING = "compaction:pending:%s";
+        String QUEUE = "compaction:queue";
+        String BACKLOG = "compaction:backlog";
+    }
+}
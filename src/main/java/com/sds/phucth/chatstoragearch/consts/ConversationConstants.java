@@ -3,5 +3,6 @@ package com.sds.phucth.chatstoragearch.consts;
 public interface ConversationConstants {
     interface Seq {
         String NEXT_SEQ_FORMAT = "conv:%s:seq";
+        String OWNER_FORMAT = "conv:%s:seq:owner";
     }
 }
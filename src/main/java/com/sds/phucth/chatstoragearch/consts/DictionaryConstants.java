@@ -0,0 +1,7 @@
+package com.sds.phucth.chatstoragearch.consts;
+
+public interface DictionaryConstants {
+    interface KeyFormat {
+        String ACTIVE = "dict:%s:%s";
+    }
+}
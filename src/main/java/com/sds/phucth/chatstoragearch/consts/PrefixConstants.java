@@ -4,7 +4,11 @@ public interface PrefixConstants {
     interface Ref {
         String CAS = "cas:";
         String MESSAGE_REF = "seg:%s:%d:%d";
+        String MESSAGE_REF_BLOCK = "seg:%s:%d:%d:%d:%d";
         String CAS_READ = "cas";
         String SEG = "seg:";
+        String SEG_KEY = "segKey:";
+        String PACK = "pack:";
+        String PACK_REF = "pack:%s:%d:%d";
     }
 }
@@ -5,13 +5,17 @@ public interface S3Constants {
         String CAS_KEY = "%s/cas/sha256/%s/%s.json.zst";
         String SEG_DATA_KEY = "%s/seg/%s/%s/%s/seg-%s.jsonl.zst";
         String SEG_INDEX_KEY = "%s/seg/%s/%s/%s/seg-%s.idx.%s";
+        String PACK_KEY = "%s/pack/%s/pack-%s.jsonl.zst";
+        String DICT_KEY = "%s/dict/%d.zdict";
     }
 
     interface Range {
         String BYTE_FORMAT = "bytes=%d-%d";
+        String SUFFIX_FORMAT = "bytes=-%d";
     }
     interface ContentType {
         String ZSTD = "application/zstd";
         String JSON = "application/json";
+        String OCTET_STREAM = "application/octet-stream";
     }
 }
@@ -0,0 +1,11 @@
+package com.sds.phucth.chatstoragearch.consts;
+
+public interface SegmentConstants {
+    // compaction hiện chỉ ghi 1 tenant; reader dựng lại dataKey khi catalog miss cũng dùng giá trị này
+    String DEFAULT_TENANT = "default";
+
+    interface Format {
+        int RECORD_FRAMES = 1;   // 1 zstd frame / record
+        int BLOCK_PACKED = 2;    // nhiều record JSONL / 1 zstd frame (block)
+    }
+}
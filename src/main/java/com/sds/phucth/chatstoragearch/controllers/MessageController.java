@@ -3,7 +3,9 @@ package com.sds.phucth.chatstoragearch.controllers;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.sds.phucth.chatstoragearch.dto.ChatRecord;
 import com.sds.phucth.chatstoragearch.dto.MessageRequest;
+import com.sds.phucth.chatstoragearch.services.ConversationSequenceService;
 import com.sds.phucth.chatstoragearch.services.L0WriterService;
+import com.sds.phucth.chatstoragearch.services.LiveTailService;
 import com.sds.phucth.chatstoragearch.services.ReaderService;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
@@ -15,14 +17,17 @@ import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 @RestController
 @RequestMapping("/conversations/{conversationId}/messages")
@@ -32,25 +37,21 @@ import java.util.Optional;
 public class MessageController {
     L0WriterService l0WriterService;
     ReaderService readerService;
+    LiveTailService liveTailService;
 
     @Value("${app.redis.idempotencyTtlSeconds}")
     @NonFinal
     private int idempotencyTtlSeconds;
 
+    @Value("${app.liveTail.timeoutMillis:300000}")
+    @NonFinal
+    long liveTailTimeoutMillis;
+
     @PostMapping
     public ResponseEntity<Map<String, Object>> saveMessage(
             @PathVariable String conversationId,
             @RequestBody @Valid MessageRequest messageRequest) throws JsonProcessingException {
 
-        // Validate idempotency (kiểm tra nếu message đã tồn tại)
-        if (messageRequest.getClientMsgId() != null) {
-            Optional<String> existingMsg = l0WriterService.checkIfMessageAlreadyExists(messageRequest.getClientMsgId());
-            if (existingMsg.isPresent()) {
-                return ResponseEntity.status(HttpStatus.OK)
-                        .body(Map.of("msgId", existingMsg.get(), "status", "already exists"));
-            }
-        }
-
         // Ghi message vào hệ thống
         ChatRecord chatRecord = l0WriterService.writeL0(
                 conversationId,
@@ -60,11 +61,26 @@ public class MessageController {
                 messageRequest.getClientMsgId()
         );
 
+        // clientMsgId đã được ghi trước đó (idempotency)
+        if (chatRecord.isDuplicate()) {
+            return ResponseEntity.status(HttpStatus.OK)
+                    .body(Map.of("msgId", chatRecord.getMsgId(), "status", "already exists"));
+        }
+
         // Trả về thông tin message đã được ghi
         return ResponseEntity.status(HttpStatus.CREATED)
                 .body(Map.of("msgId", chatRecord.getMsgId(), "seq", chatRecord.getSeq(), "status", "success"));
     }
 
+    // node khác đang cấp seq cho conversation (leased ranges) -> lỗi tạm thời, client gửi lại sau Retry-After
+    @ExceptionHandler(ConversationSequenceService.LeaseHeldElsewhereException.class)
+    public ResponseEntity<Map<String, Object>> sequenceLeaseHeld(ConversationSequenceService.LeaseHeldElsewhereException e) {
+        long retryAfterSeconds = Math.max(1, (e.retryAfterMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .body(Map.of("error", "Conversation is being written through another node", "retryAfterMillis", e.retryAfterMillis()));
+    }
+
     @GetMapping
     public ResponseEntity<List<Map<String, Object>>> getMessages(
             @PathVariable String conversationId,
@@ -83,4 +99,40 @@ public class MessageController {
                     .body(Collections.singletonList(Map.of("error", "Failed to read messages")));
         }
     }
+
+    /**
+     * Stream thẳng canonical JSON đã lưu theo thứ tự seq (JSON array hoặc NDJSON),
+     * không parse record thành Map rồi serialize lại.
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamMessages(
+            @PathVariable String conversationId,
+            @RequestParam(defaultValue = "0") long cursor,
+            @RequestParam(defaultValue = "50") @Min(1) @Max(1000) int limit,
+            @RequestParam(defaultValue = "asc") @Pattern(regexp="(?i)asc|desc") String order,
+            @RequestParam(defaultValue = "json") @Pattern(regexp="(?i)json|ndjson") String format) {
+
+        boolean ascending = order.equalsIgnoreCase("asc");
+        boolean ndjson = format.equalsIgnoreCase("ndjson");
+
+        ReaderService.RawWindow window = readerService.openRawWindow(conversationId, cursor, limit, ascending);
+        StreamingResponseBody body = out -> readerService.writeRawWindow(window, out, ndjson);
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    /**
+     * SSE: đẩy record mới của conversation ngay khi được ghi.
+     * Reconnect gửi Last-Event-ID (= seq cuối đã nhận) hoặc fromSeq để nhận bù phần bị lỡ.
+     */
+    @GetMapping(path = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter liveTail(
+            @PathVariable String conversationId,
+            @RequestParam(required = false) Long fromSeq,
+            @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(liveTailTimeoutMillis);
+        liveTailService.subscribe(conversationId, lastEventId != null ? lastEventId : fromSeq, emitter);
+        return emitter;
+    }
 }
@@ -1,5 +1,6 @@
 package com.sds.phucth.chatstoragearch.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
@@ -19,4 +20,8 @@ public class ChatRecord {
     Object body;          // text / rich JSON tùy bạn
     Map<String,Object> meta;
     OffsetDateTime createdAt;
+
+    // true khi clientMsgId đã được ghi trước đó; không thuộc nội dung record
+    @JsonIgnore
+    boolean duplicate;
 }
\ No newline at end of file
@@ -14,6 +14,10 @@ import lombok.experimental.FieldDefaults;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class IndexEntry {
     String msgId;
-    long offset;
+    long seq;
+    long offset;           // vị trí frame (v1) hoặc block (v2) trong segment
     int length;
+    Integer recordOffset;  // chỉ có ở v2: vị trí record trong block đã giải nén
+    Integer recordLength;
+    Long createdAt;        // epoch millis, cột tuỳ chọn trong footer nhị phân
 }
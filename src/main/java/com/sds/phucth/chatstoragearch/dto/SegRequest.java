@@ -17,5 +17,8 @@ import java.util.List;
 @FieldDefaults(level = AccessLevel.PRIVATE)
 public class SegRequest {
     String segUlid;
+    String conversationId;
+    String dataKey;       // null -> resolve theo segUlid
+    @Builder.Default
     List<Slice> slices = new ArrayList<>();
 }
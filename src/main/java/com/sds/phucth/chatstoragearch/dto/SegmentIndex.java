@@ -0,0 +1,23 @@
+package com.sds.phucth.chatstoragearch.dto;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class SegmentIndex {
+    int formatVersion;    // SegmentConstants.Format
+    long dictId;          // 0 = frame không dùng dictionary
+    @Builder.Default
+    List<IndexEntry> entries = new ArrayList<>();
+}
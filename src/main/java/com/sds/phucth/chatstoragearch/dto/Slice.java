@@ -16,4 +16,8 @@ public class Slice {
     long start;
     int length;
     String messageId;
+    long seq;
+    @Builder.Default
+    int recordOffset = -1;   // >= 0: record nằm trong block (format v2)
+    int recordLength;
 }
@@ -0,0 +1,24 @@
+package com.sds.phucth.chatstoragearch.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Fencing token lớn nhất đã ghi kết quả compaction của conversation.
+ * Chỉ đổi qua CompactionFenceRepository (update có điều kiện) trong transaction đổi refId.
+ */
+@Entity
+@Table(name="compaction_fences")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CompactionFence {
+    @Id
+    @Column(name="conversation_id")
+    private String conversationId;
+
+    @Column(name="fencing_token")
+    private long fencingToken;
+}
@@ -2,18 +2,19 @@ package com.sds.phucth.chatstoragearch.models;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.springframework.data.domain.Persistable;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 
 @Entity
-@Table(name="messages_ref")
+@Table(name="messages_ref", indexes = @Index(name = "ix_messages_ref_conv_seq", columnList = "conversation_id, seq"))
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-public class MessageRef {
+public class MessageRef implements Persistable<String> {
     @Id
     private String id; // ULID
 
@@ -45,4 +46,26 @@ public class MessageRef {
 
     @Column(name="meta")
     private String meta;
+
+    // số byte zstd thực tế của record ở L0, planner dùng để cắt segment sát segmentTargetBytes
+    @Column(name="stored_bytes")
+    private Integer storedBytes;
+
+    // id là ULID tự sinh -> báo cho Spring Data biết để persist thẳng (không merge/select trước), cho phép batch insert
+    @Transient
+    @Builder.Default
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean newEntity = true;
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
 }
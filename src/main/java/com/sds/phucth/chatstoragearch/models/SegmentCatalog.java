@@ -0,0 +1,67 @@
+package com.sds.phucth.chatstoragearch.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.OffsetDateTime;
+
+/** 1 row / segment đã compact. Segment bất biến nên row chỉ insert, không update. */
+@Entity
+@Table(name="segments_catalog")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SegmentCatalog implements Persistable<String> {
+    @Id
+    private String id; // segment ULID
+
+    @Column(name="data_key")
+    private String dataKey;
+
+    @Column(name="index_key")
+    private String indexKey;
+
+    @Column(name="format_version")
+    private int formatVersion;
+
+    @Column(name="dict_id")
+    private long dictId;
+
+    @Column(name="conversation_id")
+    private String conversationId;
+
+    @Column(name="min_seq")
+    private long minSeq;
+
+    @Column(name="max_seq")
+    private long maxSeq;
+
+    @Column(name="record_count")
+    private int recordCount;
+
+    @Column(name="byte_size")
+    private long byteSize;
+
+    @Column(name="created_at")
+    private OffsetDateTime createdAt;
+
+    @Transient
+    @Builder.Default
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean newEntity = true;
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.newEntity = false;
+    }
+}
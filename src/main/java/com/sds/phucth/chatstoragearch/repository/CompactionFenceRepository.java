@@ -0,0 +1,24 @@
+package com.sds.phucth.chatstoragearch.repository;
+
+import com.sds.phucth.chatstoragearch.models.CompactionFence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface CompactionFenceRepository extends JpaRepository<CompactionFence, String> {
+    // khoá row fence tới hết transaction -> node khác chỉ ghi được sau khi transaction này commit/rollback
+    @Modifying
+    @Query(value = """
+    update compaction_fences set fencing_token = :token
+    where conversation_id = :cid and fencing_token <= :token
+    """, nativeQuery = true)
+    int advance(@Param("cid") String cid, @Param("token") long token);
+
+    @Modifying
+    @Query(value = """
+    insert into compaction_fences (conversation_id, fencing_token)
+    select :cid, :token where not exists (select 1 from compaction_fences where conversation_id = :cid)
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("cid") String cid, @Param("token") long token);
+}
@@ -8,7 +8,7 @@ import org.springframework.data.repository.query.Param;
 import java.time.OffsetDateTime;
 import java.util.List;
 
-public interface MessageRefRepository extends JpaRepository<MessageRef, String> {
+public interface MessageRefRepository extends JpaRepository<MessageRef, String>, MessageRefRepositoryCustom {
     @Query(value = """
     select * from messages_ref
     where conversation_id = :cid and seq > :afterSeq
@@ -25,6 +25,22 @@ public interface MessageRefRepository extends JpaRepository<MessageRef, String>
     """, nativeQuery = true)
     List<MessageRef> pageDesc(@Param("cid") String cid, @Param("beforeSeq") long beforeSeq, @Param("limit") int limit);
 
-    @Query(value = "select * from messages_ref where ref_id like 'cas:%' and created_at < :cutoff order by conversation_id, seq", nativeQuery = true)
-    List<MessageRef> findEligibleForCompaction(@Param("cutoff") OffsetDateTime cutoff);
+    // keyset trên (conversation_id, seq): mỗi trang là 1 query ngắn, không giữ transaction/entity giữa các trang
+    @Query(value = """
+    select distinct top (:limit) conversation_id from messages_ref
+    where (ref_id like 'cas:%' or ref_id like 'pack:%') and created_at < :cutoff and conversation_id > :afterCid
+    order by conversation_id
+    """, nativeQuery = true)
+    List<String> pageConversationsPendingCompaction(@Param("afterCid") String afterCid, @Param("cutoff") OffsetDateTime cutoff,
+                                                     @Param("limit") int limit);
+
+    @Query(value = """
+    select * from messages_ref
+    where conversation_id = :cid and seq > :afterSeq
+      and (ref_id like 'cas:%' or ref_id like 'pack:%') and created_at < :cutoff
+    order by seq asc
+    offset 0 rows fetch next :limit rows only
+    """, nativeQuery = true)
+    List<MessageRef> pageEligibleForCompaction(@Param("cid") String cid, @Param("afterSeq") long afterSeq,
+                                               @Param("cutoff") OffsetDateTime cutoff, @Param("limit") int limit);
 }
@@ -0,0 +1,14 @@
+package com.sds.phucth.chatstoragearch.repository;
+
+import java.util.List;
+
+public interface MessageRefRepositoryCustom {
+    /**
+     * Đổi ref_id hàng loạt bằng JDBC batch, chỉ đổi row còn giữ đúng ref cũ (expectedRefId).
+     * Trả về số row thực sự được cập nhật.
+     */
+    int rewriteRefIds(List<RefRewrite> rewrites);
+
+    record RefRewrite(String id, String expectedRefId, String newRefId) {
+    }
+}
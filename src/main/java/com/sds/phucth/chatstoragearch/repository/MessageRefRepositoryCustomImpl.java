@@ -0,0 +1,37 @@
+package com.sds.phucth.chatstoragearch.repository;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class MessageRefRepositoryCustomImpl implements MessageRefRepositoryCustom {
+    private static final String REWRITE_SQL = "update messages_ref set ref_id = ? where id = ? and ref_id = ?";
+
+    JdbcTemplate jdbcTemplate;
+
+    @Value("${app.compaction.rewriteBatchSize:1000}")
+    @NonFinal
+    int batchSize;
+
+    @Override
+    public int rewriteRefIds(List<RefRewrite> rewrites) {
+        if (rewrites.isEmpty()) {
+            return 0;
+        }
+        // update theo PK -> chỉ khoá đúng các row bị đổi; không load entity, không dirty checking
+        int[][] counts = jdbcTemplate.batchUpdate(REWRITE_SQL, rewrites, batchSize, (ps, r) -> {
+            ps.setString(1, r.newRefId());
+            ps.setString(2, r.id());
+            ps.setString(3, r.expectedRefId());
+        });
+        return Arrays.stream(counts).flatMapToInt(Arrays::stream).map(c -> Math.max(c, 0)).sum();
+    }
+}
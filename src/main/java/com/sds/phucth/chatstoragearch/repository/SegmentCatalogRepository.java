@@ -0,0 +1,7 @@
+package com.sds.phucth.chatstoragearch.repository;
+
+import com.sds.phucth.chatstoragearch.models.SegmentCatalog;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface SegmentCatalogRepository extends JpaRepository<SegmentCatalog, String> {
+}
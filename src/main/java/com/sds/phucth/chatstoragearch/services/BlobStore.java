@@ -0,0 +1,73 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.utils.ByteBuffers;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Kho object bất biến theo key (CAS, pack, segment, dictionary).
+ * Backend chọn bằng app.storage.backend: s3 (S3Service) hoặc filesystem (FileSystemBlobStore).
+ * Object không tồn tại -> RuntimeException "Object not found: key".
+ */
+public interface BlobStore {
+
+    CompletableFuture<Void> putAsync(String key, byte[] bytes, String contentType);
+
+    /** Chỉ ghi khi key chưa tồn tại; false nếu key đã có (object cũ giữ nguyên). */
+    CompletableFuture<Boolean> putIfAbsentAsync(String key, byte[] bytes, String contentType);
+
+    CompletableFuture<ByteBuffer> getAsync(String key);
+
+    /** Đọc [start, endInclusive]; end vượt cuối object thì trả tới hết object như Range của HTTP. */
+    CompletableFuture<ByteBuffer> rangeGetAsync(String key, long start, long endInclusive);
+
+    /** n byte cuối của object (đọc trailer/footer segment). */
+    CompletableFuture<ByteBuffer> suffixGetAsync(String key, long n);
+
+    CompletableFuture<String> createMultipartUploadAsync(String key, String contentType);
+
+    CompletableFuture<Part> uploadPartAsync(String key, String uploadId, int partNumber, byte[] bytes);
+
+    /** Ghép các part theo partNumber thành object; object chỉ xuất hiện khi complete xong. */
+    CompletableFuture<Void> completeMultipartUploadAsync(String key, String uploadId, List<Part> parts);
+
+    CompletableFuture<Void> abortMultipartUploadAsync(String key, String uploadId);
+
+    /** true nếu đọc là truy cập đĩa cục bộ (không qua mạng) -> cache block phía trên không cần thiết. */
+    default boolean local() {
+        return false;
+    }
+
+    default void putBytes(String key, byte[] bytes, String contentType) {
+        join(putAsync(key, bytes, contentType));
+    }
+
+    default boolean putBytesIfAbsent(String key, byte[] bytes, String contentType) {
+        return join(putIfAbsentAsync(key, bytes, contentType));
+    }
+
+    default byte[] getBytes(String key) {
+        return ByteBuffers.toArray(join(getAsync(key)));
+    }
+
+    default byte[] rangeGet(String key, long start, long endInclusive) {
+        return ByteBuffers.toArray(join(rangeGetAsync(key, start, endInclusive)));
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    record Part(int partNumber, String eTag) {
+    }
+}
@@ -0,0 +1,172 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.consts.CompactionConstants;
+import com.sds.phucth.chatstoragearch.models.CompactionFence;
+import com.sds.phucth.chatstoragearch.repository.CompactionFenceRepository;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Lease compaction theo conversation trên Redis.
+ * Lease = SET NX PX với value "node:token"; token lấy từ INCR tăng đơn điệu (fencing token).
+ * Counter token trong Redis chỉ là cache có TTL của fence SQL: mất (failover, flush, hết hạn) thì được seed lại
+ * từ compaction_fences, nên token mới luôn lớn hơn token đã ghi và Redis không giữ key vĩnh viễn theo conversation.
+ * Token được kiểm ở chính chỗ ghi: ensureHeld nâng row compaction_fences lên token của lease
+ * (chỉ khi token không nhỏ hơn) trong cùng transaction đổi refId; row bị khoá tới khi commit.
+ * Node đã mất lease (GC pause, mất mạng) mà owner mới đã ghi -> update 0 row -> rollback, không ghi đè được.
+ * Node chết -> lease hết hạn -> node khác tự nhận lại conversation ở vòng plan kế tiếp.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CompactionLeaseService {
+    // KEYS[1]=lease KEYS[2]=fence ARGV[1]=node ARGV[2]=ttlMillis ARGV[3]=fenceTtlMillis ARGV[4]=seed ("" = chưa đọc SQL)
+    // -> token, -1 nếu lease đang bị giữ, -2 nếu counter không còn và cần seed từ SQL
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 1 then return -1 end
+            if redis.call('exists', KEYS[2]) == 0 then
+              if ARGV[4] == '' then return -2 end
+              redis.call('set', KEYS[2], ARGV[4])
+            end
+            local token = redis.call('incr', KEYS[2])
+            redis.call('pexpire', KEYS[2], ARGV[3])
+            redis.call('set', KEYS[1], ARGV[1] .. ':' .. token, 'PX', ARGV[2])
+            return token
+            """, Long.class);
+
+    // KEYS[1]=fence ARGV[1]=token đã ghi trong SQL ARGV[2]=fenceTtlMillis: counter tụt dưới SQL (failover mất ghi) -> nâng lên
+    private static final RedisScript<Long> RAISE = new DefaultRedisScript<>("""
+            local current = tonumber(redis.call('get', KEYS[1]) or '0')
+            if current < tonumber(ARGV[1]) then
+              redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+              return 1
+            end
+            return 0
+            """, Long.class);
+
+    // KEYS[1]=lease ARGV[1]=owner ARGV[2]=ttlMillis
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+              return redis.call('pexpire', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    // KEYS[1]=lease ARGV[1]=owner
+    private static final RedisScript<Long> CHECK = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then return 1 end
+            return 0
+            """, Long.class);
+
+    // KEYS[1]=lease ARGV[1]=owner
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then
+              return redis.call('del', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private static final long NEEDS_SEED = -2;
+
+    StringRedisTemplate redisTemplate;
+    NodeIdentity nodeIdentity;
+    CompactionFenceRepository compactionFenceRepository;
+
+    @Value("${app.compaction.lease.ttlMillis:300000}")
+    @NonFinal
+    long ttlMillis;
+
+    @Value("${app.compaction.lease.heartbeatTtlMillis:60000}")
+    @NonFinal
+    long heartbeatTtlMillis;
+
+    public Optional<Lease> tryAcquire(String conversationId) {
+        Long token = acquire(conversationId, "");
+        if (token != null && token == NEEDS_SEED) {
+            token = acquire(conversationId, Long.toString(writtenToken(conversationId)));
+        }
+        if (token == null || token < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new Lease(conversationId, nodeIdentity.id() + ":" + token, token));
+    }
+
+    private Long acquire(String conversationId, String seed) {
+        return redisTemplate.execute(ACQUIRE,
+                List.of(leaseKey(conversationId), fenceKey(conversationId)),
+                nodeIdentity.id(), Long.toString(ttlMillis), Long.toString(fenceTtlMillis()), seed);
+    }
+
+    // counter chỉ cần sống lâu hơn lease; lease còn thì không ai xin token mới được
+    private long fenceTtlMillis() {
+        return ttlMillis * 2;
+    }
+
+    private long writtenToken(String conversationId) {
+        return compactionFenceRepository.findById(conversationId).map(CompactionFence::getFencingToken).orElse(0L);
+    }
+
+    public boolean renew(Lease lease) {
+        Long ok = redisTemplate.execute(RENEW, List.of(leaseKey(lease.conversationId())),
+                lease.owner(), Long.toString(ttlMillis));
+        return ok != null && ok == 1L;
+    }
+
+    /**
+     * Gọi trong transaction ghi đè refId, ngay trước khi ghi; ném lỗi để rollback nếu lease đã sang node khác.
+     * Redis CHECK chỉ để fail sớm; chặn thật là fence SQL: token nhỏ hơn token đã ghi thì không update được row.
+     */
+    public void ensureHeld(Lease lease) {
+        Long ok = redisTemplate.execute(CHECK, List.of(leaseKey(lease.conversationId())), lease.owner());
+        if (ok == null || ok != 1L) {
+            throw new IllegalStateException("Compaction lease lost for conversation " + lease.conversationId()
+                    + " (token " + lease.fencingToken() + ")");
+        }
+        String cid = lease.conversationId();
+        long token = lease.fencingToken();
+        if (compactionFenceRepository.advance(cid, token) == 0 && compactionFenceRepository.insertIfAbsent(cid, token) == 0) {
+            // node cũ bị chặn, hoặc counter Redis tụt (failover) -> nâng counter lên token SQL để lease sau ghi được
+            redisTemplate.execute(RAISE, List.of(fenceKey(cid)),
+                    Long.toString(writtenToken(cid)), Long.toString(fenceTtlMillis()));
+            throw new IllegalStateException("Compaction fenced off for conversation " + cid
+                    + ": a newer lease already wrote (token " + token + ")");
+        }
+    }
+
+    public void release(Lease lease) {
+        redisTemplate.execute(RELEASE, List.of(leaseKey(lease.conversationId())), lease.owner());
+    }
+
+    /** Ghi heartbeat của node và trả về số node compaction đang sống (tối thiểu 1). */
+    public int heartbeat() {
+        long now = System.currentTimeMillis();
+        String key = CompactionConstants.KeyFormat.NODES;
+        redisTemplate.opsForZSet().add(key, nodeIdentity.id(), now);
+        redisTemplate.opsForZSet().removeRangeByScore(key, Double.NEGATIVE_INFINITY, now - heartbeatTtlMillis);
+        Long alive = redisTemplate.opsForZSet().zCard(key);
+        return alive == null ? 1 : (int) Math.max(1, alive);
+    }
+
+    private static String fenceKey(String conversationId) {
+        return CompactionConstants.KeyFormat.FENCE.formatted(conversationId);
+    }
+
+    private static String leaseKey(String conversationId) {
+        return CompactionConstants.KeyFormat.LEASE.formatted(conversationId);
+    }
+
+    public record Lease(String conversationId, String owner, long fencingToken) {
+    }
+}
@@ -0,0 +1,229 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.consts.SegmentConstants;
+import com.sds.phucth.chatstoragearch.models.MessageRef;
+import com.sds.phucth.chatstoragearch.repository.MessageRefRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chia compaction thành task theo conversation, chạy được trên nhiều node cùng lúc.
+ * Mỗi vòng plan: heartbeat -> lấy conversation đến hạn từ CompactionQueueService (dựng từ event topic.write)
+ * -> nhận tối đa fair share (trang / số node sống, chặn bởi số worker local) qua lease có fencing token -> worker pool.
+ * Quét SQL chỉ còn là safety net tần suất thấp, đưa conversation bị sót (event mất, dữ liệu cũ) vào queue.
+ * Lease được gia hạn định kỳ khi task còn chạy; node chết thì lease hết hạn và node khác nhận lại.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CompactionPlanner {
+    CompactorService compactorService;
+    CompactionLeaseService compactionLeaseService;
+    CompactionQueueService compactionQueueService;
+    MessageRefRepository messageRefRepository;
+    MeterRegistry meterRegistry;
+
+    ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    Map<String, CompactionLeaseService.Lease> running = new ConcurrentHashMap<>();
+    AtomicLong backlogRecords = new AtomicLong();
+    AtomicLong backlogBytes = new AtomicLong();
+    AtomicLong queued = new AtomicLong();
+
+    @NonFinal
+    Semaphore slots;
+
+    @Value("${app.compaction.workers:4}")
+    @NonFinal
+    int workerCount;
+
+    @Value("${app.compaction.minAgeMinutes:30}")
+    @NonFinal
+    int minAgeMinutes;
+
+    @Value("${app.compaction.planPageSize:1000}")
+    @NonFinal
+    int pageSize;
+
+    @Value("${app.compaction.segmentTargetBytes}")
+    @NonFinal
+    int targetBytes;
+
+    @PostConstruct
+    void init() {
+        slots = new Semaphore(Math.max(1, workerCount));
+        meterRegistry.gauge("compaction.backlog.rows", backlogRecords);
+        meterRegistry.gauge("compaction.backlog.bytes", backlogBytes);
+        meterRegistry.gauge("compaction.queue.conversations", queued);
+        meterRegistry.gauge("compaction.running", running, Map::size);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+        running.values().forEach(compactionLeaseService::release);
+    }
+
+    @Scheduled(fixedDelayString = "${app.compaction.planIntervalMillis:15000}")
+    public void runPlanner() {
+        int aliveNodes = compactionLeaseService.heartbeat();
+        if (slots.availablePermits() == 0) {
+            return;
+        }
+        List<String> page = compactionQueueService.due(pageSize);
+        if (page.isEmpty()) {
+            return;
+        }
+        OffsetDateTime cutoff = OffsetDateTime.now(ZoneOffset.UTC).minusMinutes(minAgeMinutes);
+        // fair share của node trên trang này; xáo trộn để các node không cùng tranh đầu trang
+        int budget = (page.size() + aliveNodes - 1) / aliveNodes;
+        Collections.shuffle(page);
+        for (String conversationId : page) {
+            if (budget <= 0 || slots.availablePermits() == 0) {
+                break;
+            }
+            if (claim(conversationId, cutoff)) {
+                budget--;
+            }
+        }
+    }
+
+    // duyệt toàn bộ conversation còn ref L0 theo keyset; chỉ đưa vào queue, việc nhận vẫn qua runPlanner
+    @Scheduled(fixedDelayString = "${app.compaction.safetyNetIntervalMillis:3600000}",
+            initialDelayString = "${app.compaction.safetyNetIntervalMillis:3600000}")
+    public void runSafetyNet() {
+        OffsetDateTime cutoff = OffsetDateTime.now(ZoneOffset.UTC).minusMinutes(minAgeMinutes);
+        String after = "";
+        int enqueued = 0;
+        List<String> page;
+        do {
+            page = messageRefRepository.pageConversationsPendingCompaction(after, cutoff, pageSize);
+            page.forEach(compactionQueueService::enqueueNow);
+            enqueued += page.size();
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == pageSize);
+        if (enqueued > 0) {
+            log.info("Compaction safety net enqueued {} conversations", enqueued);
+        }
+    }
+
+    // backlog lấy từ tổng Redis mà CompactionQueueService cộng dồn từ event -> không quét SQL; scrape chỉ đọc AtomicLong
+    @Scheduled(fixedDelayString = "${app.compaction.backlogRefreshMillis:15000}")
+    public void refreshBacklog() {
+        try {
+            CompactionQueueService.Backlog backlog = compactionQueueService.backlog();
+            backlogRecords.set(backlog.count());
+            backlogBytes.set(backlog.bytes());
+            queued.set(compactionQueueService.queued());
+        } catch (Exception e) {
+            log.warn("Compaction backlog refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean claim(String conversationId, OffsetDateTime cutoff) {
+        if (running.containsKey(conversationId) || !slots.tryAcquire()) {
+            return false;
+        }
+        var lease = compactionLeaseService.tryAcquire(conversationId);
+        if (lease.isEmpty()) {
+            slots.release();
+            return false;
+        }
+        running.put(conversationId, lease.get());
+        workers.execute(() -> runTask(lease.get(), cutoff));
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${app.compaction.lease.renewMillis:60000}")
+    public void renewLeases() {
+        running.values().forEach(lease -> {
+            if (!compactionLeaseService.renew(lease)) {
+                log.warn("Compaction lease for conversation {} expired (token {})", lease.conversationId(), lease.fencingToken());
+            }
+        });
+    }
+
+    private void runTask(CompactionLeaseService.Lease lease, OffsetDateTime cutoff) {
+        try {
+            Compacted done = compactConversation(lease, cutoff);
+            compactionQueueService.settle(lease.conversationId(), done.count(), done.bytes(),
+                    cutoff.toInstant().toEpochMilli());
+        } catch (Exception e) {
+            log.error("Compaction failed for conversation {}", lease.conversationId(), e);
+        } finally {
+            compactionLeaseService.release(lease);
+            running.remove(lease.conversationId());
+            slots.release();
+        }
+    }
+
+    /*
+     * Đọc record chờ compact theo trang keyset trên seq, cộng dồn storedBytes thực tế (zstd ở L0)
+     * và cắt segment khi chạm segmentTargetBytes; bucket đã compact được bỏ ngay -> bộ nhớ chỉ giữ ~1 segment.
+     */
+    private Compacted compactConversation(CompactionLeaseService.Lease lease, OffsetDateTime cutoff) throws Exception {
+        String conv = lease.conversationId();
+
+        List<MessageRef> bucket = new ArrayList<>();
+        long bucketBytes = 0;
+        long count = 0;
+        long bytes = 0;
+        long afterSeq = 0;
+        List<MessageRef> page;
+        do {
+            page = messageRefRepository.pageEligibleForCompaction(conv, afterSeq, cutoff, pageSize);
+            for (MessageRef mr : page) {
+                bucket.add(mr);
+                bucketBytes += storedBytes(mr);
+                if (bucketBytes >= targetBytes) {
+                    compactorService.compactGroup(SegmentConstants.DEFAULT_TENANT, conv, bucket, lease);
+                    count += bucket.size();
+                    bytes += bucketBytes;
+                    bucket = new ArrayList<>();
+                    bucketBytes = 0;
+                }
+            }
+            if (!page.isEmpty()) {
+                afterSeq = page.get(page.size() - 1).getSeq();
+            }
+        } while (page.size() == pageSize);
+
+        if (!bucket.isEmpty()) {
+            compactorService.compactGroup(SegmentConstants.DEFAULT_TENANT, conv, bucket, lease);
+            count += bucket.size();
+            bytes += bucketBytes;
+        }
+        return new Compacted(count, bytes);
+    }
+
+    // row cũ chưa có stored_bytes -> giữ ước lượng ~2KB nén như trước
+    private static long storedBytes(MessageRef mr) {
+        return mr.getStoredBytes() != null ? mr.getStoredBytes() : 2048;
+    }
+
+    private record Compacted(long count, long bytes) {
+    }
+}
@@ -0,0 +1,192 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sds.phucth.chatstoragearch.consts.CompactionConstants;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hàng đợi compaction dựng từ event topic.write thay cho quét SQL định kỳ.
+ * Mỗi conversation giữ trong Redis số record/byte chờ compact và createdAt cũ nhất;
+ * queue là ZSET score = thời điểm đến hạn: vượt ngưỡng count/bytes -> oldest + minAge, ngược lại oldest + maxAge.
+ * Offset chỉ commit sau khi đã cộng vào Redis -> restart đọc tiếp từ checkpoint (at-least-once, đếm dư vô hại).
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class CompactionQueueService {
+    // KEYS[1]=pending KEYS[2]=queue KEYS[3]=backlog ARGV[1]=count ARGV[2]=bytes ARGV[3]=oldest
+    // ARGV[4]=countThreshold ARGV[5]=bytesThreshold ARGV[6]=minAgeMillis ARGV[7]=maxAgeMillis ARGV[8]=conversationId
+    private static final RedisScript<Long> TRACK = new DefaultRedisScript<>("""
+            local c = redis.call('hincrby', KEYS[1], 'count', ARGV[1])
+            local b = redis.call('hincrby', KEYS[1], 'bytes', ARGV[2])
+            redis.call('hincrby', KEYS[3], 'count', ARGV[1])
+            redis.call('hincrby', KEYS[3], 'bytes', ARGV[2])
+            local oldest = tonumber(redis.call('hget', KEYS[1], 'oldest'))
+            if not oldest or tonumber(ARGV[3]) < oldest then
+              oldest = tonumber(ARGV[3])
+              redis.call('hset', KEYS[1], 'oldest', ARGV[3])
+            end
+            local due = oldest + tonumber(ARGV[7])
+            if c >= tonumber(ARGV[4]) or b >= tonumber(ARGV[5]) then due = oldest + tonumber(ARGV[6]) end
+            local cur = redis.call('zscore', KEYS[2], ARGV[8])
+            if not cur or due < tonumber(cur) then redis.call('zadd', KEYS[2], due, ARGV[8]) end
+            return c
+            """, Long.class);
+
+    // như TRACK nhưng trừ phần đã compact; record còn lại đều mới hơn cutoff của lượt vừa chạy (ARGV[3])
+    // tổng backlog trừ đúng phần pending của conversation giảm đi (sau khi kẹp về 0), không trừ ARGV thô
+    private static final RedisScript<Long> SETTLE = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 0 then
+              redis.call('zrem', KEYS[2], ARGV[8])
+              return 0
+            end
+            local oc = tonumber(redis.call('hget', KEYS[1], 'count') or 0)
+            local ob = tonumber(redis.call('hget', KEYS[1], 'bytes') or 0)
+            local c = redis.call('hincrby', KEYS[1], 'count', -tonumber(ARGV[1]))
+            local b = redis.call('hincrby', KEYS[1], 'bytes', -tonumber(ARGV[2]))
+            if c <= 0 then
+              redis.call('hincrby', KEYS[3], 'count', -oc)
+              redis.call('hincrby', KEYS[3], 'bytes', -ob)
+              redis.call('del', KEYS[1])
+              redis.call('zrem', KEYS[2], ARGV[8])
+              return 0
+            end
+            if b < 0 then
+              b = 0
+              redis.call('hset', KEYS[1], 'bytes', 0)
+            end
+            redis.call('hincrby', KEYS[3], 'count', c - oc)
+            redis.call('hincrby', KEYS[3], 'bytes', b - ob)
+            local oldest = math.max(tonumber(redis.call('hget', KEYS[1], 'oldest') or 0), tonumber(ARGV[3]))
+            redis.call('hset', KEYS[1], 'oldest', oldest)
+            local due = oldest + tonumber(ARGV[7])
+            if c >= tonumber(ARGV[4]) or b >= tonumber(ARGV[5]) then due = oldest + tonumber(ARGV[6]) end
+            redis.call('zadd', KEYS[2], due, ARGV[8])
+            return c
+            """, Long.class);
+
+    StringRedisTemplate redisTemplate;
+    ObjectMapper objectMapper;
+
+    @Value("${app.compaction.queue.countThreshold:500}")
+    @NonFinal
+    long countThreshold;
+
+    @Value("${app.compaction.queue.bytesThreshold:4194304}")
+    @NonFinal
+    long bytesThreshold;
+
+    @Value("${app.compaction.queue.maxAgeMinutes:240}")
+    @NonFinal
+    long maxAgeMinutes;
+
+    @Value("${app.compaction.minAgeMinutes:30}")
+    @NonFinal
+    long minAgeMinutes;
+
+    @KafkaListener(topics = "${topic.write}",
+            groupId = "${app.compaction.queue.groupId:compaction-planner}",
+            containerFactory = "compactionListenerContainerFactory",
+            autoStartup = "${app.compaction.queue.enabled:true}")
+    public void onWritten(List<ConsumerRecord<String, byte[]>> events, Acknowledgment ack) {
+        // gộp theo conversation trong batch -> 1 lệnh Redis / conversation
+        Map<String, Pending> batch = new HashMap<>();
+        for (ConsumerRecord<String, byte[]> event : events) {
+            if (event.key() == null) {
+                continue;
+            }
+            long bytes = 2048;
+            try {
+                JsonNode written = objectMapper.readTree(event.value());
+                bytes = written.path("bytes").asLong(bytes);
+            } catch (Exception e) {
+                log.warn("Unreadable write event at {}-{}@{}: {}", event.topic(), event.partition(), event.offset(), e.getMessage());
+            }
+            batch.merge(event.key(), new Pending(1, bytes, event.timestamp()), Pending::plus);
+        }
+        batch.forEach((conversationId, p) -> track(conversationId, p));
+        ack.acknowledge();
+    }
+
+    /** Conversation đã đến hạn compact (score <= now), tối đa limit, cũ nhất trước. */
+    public List<String> due(int limit) {
+        Set<String> due = redisTemplate.opsForZSet().rangeByScore(CompactionConstants.KeyFormat.QUEUE,
+                Double.NEGATIVE_INFINITY, System.currentTimeMillis(), 0, limit);
+        return due == null ? List.of() : new ArrayList<>(due);
+    }
+
+    /** Số conversation đang nằm trong queue (đến hạn hoặc chưa). */
+    public long queued() {
+        Long size = redisTemplate.opsForZSet().zCard(CompactionConstants.KeyFormat.QUEUE);
+        return size == null ? 0 : size;
+    }
+
+    /** Tổng record/byte L0 chờ compact trên mọi conversation (cộng dồn trong TRACK/SETTLE, 1 lệnh HMGET). */
+    public Backlog backlog() {
+        List<Object> values = redisTemplate.opsForHash().multiGet(CompactionConstants.KeyFormat.BACKLOG, List.of("count", "bytes"));
+        return new Backlog(parseNonNegative(values.get(0)), parseNonNegative(values.get(1)));
+    }
+
+    // at-least-once có thể làm tổng lệch nhẹ, không để gauge âm
+    private static long parseNonNegative(Object value) {
+        return value == null ? 0 : Math.max(0, Long.parseLong(value.toString()));
+    }
+
+    /** Đưa vào queue đến hạn ngay (safety net từ SQL). */
+    public void enqueueNow(String conversationId) {
+        redisTemplate.opsForZSet().add(CompactionConstants.KeyFormat.QUEUE, conversationId, System.currentTimeMillis());
+    }
+
+    /** Trừ phần vừa compact; còn record chờ thì xếp lại theo record cũ nhất còn lại, hết thì bỏ khỏi queue. */
+    public void settle(String conversationId, long count, long bytes, long cutoffMillis) {
+        redisTemplate.execute(SETTLE, keys(conversationId), args(conversationId, count, bytes, cutoffMillis));
+    }
+
+    private void track(String conversationId, Pending p) {
+        redisTemplate.execute(TRACK, keys(conversationId), args(conversationId, p.count(), p.bytes(), p.oldest()));
+    }
+
+    private static List<String> keys(String conversationId) {
+        return List.of(CompactionConstants.KeyFormat.PENDING.formatted(conversationId), CompactionConstants.KeyFormat.QUEUE,
+                CompactionConstants.KeyFormat.BACKLOG);
+    }
+
+    private Object[] args(String conversationId, long count, long bytes, long oldest) {
+        return new Object[]{
+                Long.toString(count), Long.toString(bytes), Long.toString(oldest),
+                Long.toString(countThreshold), Long.toString(bytesThreshold),
+                Long.toString(TimeUnit.MINUTES.toMillis(minAgeMinutes)), Long.toString(TimeUnit.MINUTES.toMillis(maxAgeMinutes)),
+                conversationId
+        };
+    }
+
+    public record Backlog(long count, long bytes) {
+    }
+
+    private record Pending(long count, long bytes, long oldest) {
+        Pending plus(Pending o) {
+            return new Pending(count + o.count, bytes + o.bytes, Math.min(oldest, o.oldest));
+        }
+    }
+}
@@ -3,10 +3,15 @@ package com.sds.phucth.chatstoragearch.services;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sds.phucth.chatstoragearch.consts.PrefixConstants;
 import com.sds.phucth.chatstoragearch.consts.S3Constants;
+import com.sds.phucth.chatstoragearch.consts.SegmentConstants;
 import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.dto.SegmentIndex;
 import com.sds.phucth.chatstoragearch.models.MessageRef;
+import com.sds.phucth.chatstoragearch.models.SegmentCatalog;
 import com.sds.phucth.chatstoragearch.repository.MessageRefRepository;
+import com.sds.phucth.chatstoragearch.repository.MessageRefRepositoryCustom;
 import com.sds.phucth.chatstoragearch.utils.S3Objects;
+import com.sds.phucth.chatstoragearch.utils.SegmentFooter;
 import com.sds.phucth.chatstoragearch.utils.Ulids;
 import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
 import lombok.AccessLevel;
@@ -15,19 +20,23 @@ import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.time.OffsetDateTime;
-import java.time.YearMonth;
 import java.time.ZoneOffset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 @Service
@@ -35,97 +44,267 @@ import java.util.stream.Collectors;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 public class CompactorService {
-    S3Service s3Service;
+    BlobStore blobStore;
     MessageRefRepository messageRefRepository;
     ObjectMapper objectMapper;
-    StringRedisTemplate redisTemplate;
+    ZstdDictionaryService zstdDictionaryService;
+    SegmentCatalogService segmentCatalogService;
+    CompactionLeaseService compactionLeaseService;
+    StageMetrics stageMetrics;
+
+    // giải nén/nén lại là CPU, chạy song song trên virtual thread
+    Executor cpuExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Value("${app.s3.prefix}")
     @NonFinal
     String prefix;
 
-    @Value("${app.compaction.segmentTargetBytes}")
+    @Value("${app.compaction.fetchConcurrency:64}")
+    @NonFinal
+    int fetchConcurrency;
+
+    @Value("${app.compaction.segmentFormat:1}")
+    @NonFinal
+    int segmentFormat;
+
+    @Value("${app.compaction.recordsPerBlock:64}")
+    @NonFinal
+    int recordsPerBlock;
+
+    @Value("${app.compaction.blockMaxBytes:262144}")
+    @NonFinal
+    int blockMaxBytes;
+
+    @Value("${app.compaction.encodeParallelism:8}")
+    @NonFinal
+    int encodeParallelism;
+
+    @Value("${app.compaction.multipartPartBytes:8388608}")
+    @NonFinal
+    int multipartPartBytes;
+
+    @Value("${app.compaction.maxInFlightParts:2}")
     @NonFinal
-    int targetBytes;
+    int maxInFlightParts;
 
     @Transactional
-    public void compactGroup(String tenant, String yyyyMM, String conversationId, List<MessageRef> batch) throws Exception {
+    public void compactGroup(String tenant, String conversationId, List<MessageRef> batch,
+                             CompactionLeaseService.Lease lease) throws Exception {
         String segUlid = Ulids.newUlid();
+        // tháng lấy từ chính segUlid -> SegmentFooterReader.dataKeyFor dựng lại đúng key khi catalog miss
+        String yyyyMM = Ulids.yearMonth(segUlid);
         String dataKey = S3Objects.segDataKey(prefix, tenant, yyyyMM, conversationId, segUlid);
         String idxKey  = S3Objects.segIndexKey(prefix, tenant, yyyyMM, conversationId, segUlid, /*json*/ false);
 
-        ByteArrayOutputStream data = new ByteArrayOutputStream(targetBytes + 1024 * 1024);
-        List<IndexEntry> idx = new ArrayList<>();
-        long offset = 0L;
-
-        for (MessageRef msgRef : batch) {
-            String hash = msgRef.getRefId().substring(PrefixConstants.Ref.CAS.length());
-            byte[] obj  = s3Service.getBytes(S3Objects.casKey(prefix, hash));
-            byte[] json = ZstdCodec.decompress(obj);
-
-            // tạo 1 zstd frame/record
-            byte[] frame = ZstdCodec.compress(json, 9);
-            data.write(frame);
-            idx.add(IndexEntry.builder()
-                    .msgId(msgRef.getId())
-                    .offset(offset)
-                    .length(frame.length)
-                    .build());
-            offset += frame.length;
-        }
+        // record đã fetch + giải nén để train dictionary giữ lại cho encodeSegment -> không fetch L0 lần 2
+        Map<Integer, byte[]> sampled = new HashMap<>();
+        Optional<ZstdDictionaryService.SegmentDict> dict = zstdDictionaryService.dictionaryFor(
+                tenant, yyyyMM, batch.size(), () -> sampleRecords(batch, sampled));
+
+        SegmentUpload upload = new SegmentUpload(blobStore, dataKey, S3Constants.ContentType.ZSTD,
+                multipartPartBytes, maxInFlightParts);
+        List<IndexEntry> idx = new ArrayList<>(batch.size());
+        SegmentIndex index;
+        try {
+            encodeSegment(batch, sampled, dict, upload, idx);
 
-        // write segment
-        s3Service.putBytes(dataKey, data.toByteArray(), S3Constants.ContentType.ZSTD);
+            index = SegmentIndex.builder()
+                    .formatVersion(segmentFormat)
+                    .dictId(dict.map(ZstdDictionaryService.SegmentDict::dictId).orElse(0L))
+                    .entries(idx)
+                    .build();
+
+            // footer index nhị phân + trailer nằm ngay trong object -> segment tự mô tả, đọc bằng 1 suffix range-get
+            upload.write(SegmentFooter.encode(index, upload.position()));
+            stageMetrics.time(StageMetrics.Stage.UPLOAD, upload::complete);
+        } catch (Exception e) {
+            upload.abort();
+            throw e;
+        }
 
         // write index (JSON thuần) -> đúng key & content-type
-        byte[] idxJson = objectMapper.writeValueAsBytes(idx);
-        s3Service.putBytes(idxKey, idxJson, S3Constants.ContentType.JSON);
+        byte[] idxJson = objectMapper.writeValueAsBytes(index);
+        stageMetrics.time(StageMetrics.Stage.UPLOAD,
+                () -> blobStore.putBytes(idxKey, idxJson, S3Constants.ContentType.JSON));
+        stageMetrics.record(StageMetrics.Volume.COMPACTION_WRITTEN, upload.position() + idxJson.length);
 
-        // Lưu mapping segUlid -> dataKey để Reader resolve chính xác
-        redisTemplate.opsForValue().set("segKey:" + segUlid, dataKey);
+        // catalog segUlid -> dataKey, commit cùng transaction với việc đổi refId
+        segmentCatalogService.register(SegmentCatalog.builder()
+                .id(segUlid)
+                .dataKey(dataKey)
+                .indexKey(idxKey)
+                .formatVersion(index.getFormatVersion())
+                .dictId(index.getDictId())
+                .conversationId(conversationId)
+                .minSeq(idx.stream().mapToLong(IndexEntry::getSeq).min().orElse(0))
+                .maxSeq(idx.stream().mapToLong(IndexEntry::getSeq).max().orElse(0))
+                .recordCount(idx.size())
+                .byteSize(upload.position())
+                .createdAt(OffsetDateTime.now(ZoneOffset.UTC))
+                .build());
 
-        // update refId -> seg:<segULID>:<offset>:<length>
-        Map<String, MessageRef> msgIdToMessageRef = messageRefRepository
-                .findAllById(idx.stream().map(IndexEntry::getMsgId).toList())
-                .stream().collect(Collectors.toMap(MessageRef::getId, mr -> mr));
+        // fencing: token của lease phải >= token đã ghi (row fence SQL, khoá tới commit) -> không thì rollback,
+        // segment vừa ghi thành rác vô hại
+        compactionLeaseService.ensureHeld(lease);
 
-        for (IndexEntry e : idx) {
-            MessageRef mr = msgIdToMessageRef.get(e.getMsgId());
-            if (mr != null) {
-                mr.setRefId(PrefixConstants.Ref.MESSAGE_REF.formatted(segUlid, e.getOffset(), e.getLength()));
-            }
+        // update refId -> seg:<segULID>:<offset>:<length>[:<recordOffset>:<recordLength>]
+        // chỉ đổi row còn giữ đúng ref L0 lúc đọc batch (cas:/pack:)
+        Map<String, String> expectedRefs = batch.stream()
+                .collect(Collectors.toMap(MessageRef::getId, MessageRef::getRefId));
+        List<MessageRefRepositoryCustom.RefRewrite> rewrites = idx.stream()
+                .map(e -> new MessageRefRepositoryCustom.RefRewrite(e.getMsgId(), expectedRefs.get(e.getMsgId()), toRefId(segUlid, e)))
+                .toList();
+        int updated = stageMetrics.time(StageMetrics.Stage.REF_REWRITE, () -> messageRefRepository.rewriteRefIds(rewrites));
+        if (updated != rewrites.size()) {
+            log.warn("Segment {} rewrote {}/{} refs; the rest no longer hold their L0 ref", segUlid, updated, rewrites.size());
         }
-        messageRefRepository.saveAll(msgIdToMessageRef.values());
     }
 
-    @Transactional
-    @Scheduled(fixedDelay = 15000)
-    public void runPlanner() throws Exception {
-        OffsetDateTime cutoff = OffsetDateTime.now(ZoneOffset.UTC).minusMinutes(30);
-        List<MessageRef> cand = messageRefRepository.findEligibleForCompaction(cutoff);
-
-        // Group by conversationId, rồi cắt theo targetBytes
-        Map<String, List<MessageRef>> byConv = cand.stream()
-                .collect(Collectors.groupingBy(MessageRef::getConversationId));
-
-        for (var entry : byConv.entrySet()) {
-            String conv = entry.getKey();
-            List<MessageRef> list = entry.getValue();
-            list.sort(Comparator.comparingLong(MessageRef::getSeq));
-
-            List<MessageRef> bucket = new ArrayList<>();
-            int approx = 0;
-            for (MessageRef mr : list) {
-                bucket.add(mr);
-                approx += 2048; // ước lượng mỗi record ~2KB nén
-                if (approx >= targetBytes) {
-                    compactGroup("default", YearMonth.now(ZoneOffset.UTC).toString(), conv, bucket);
-                    bucket = new ArrayList<>(); approx = 0;
+    /*
+     * Pipeline: prefetch L0 trong cửa sổ fetchConcurrency (giải nén ngay khi về)
+     * -> nén lại song song (tối đa encodeParallelism unit) -> ghi theo đúng thứ tự seq -> upload part khi đầy.
+     * Unit = 1 record (format v1) hoặc 1 block JSONL (format v2).
+     * sampled = record (theo vị trí trong batch) đã có sẵn từ lúc lấy mẫu dictionary.
+     */
+    private void encodeSegment(List<MessageRef> batch, Map<Integer, byte[]> sampled,
+                               Optional<ZstdDictionaryService.SegmentDict> dict, SegmentUpload upload, List<IndexEntry> idx) {
+        Deque<CompletableFuture<byte[]>> prefetched = new ArrayDeque<>();
+        Deque<CompletableFuture<EncodedUnit>> encoding = new ArrayDeque<>();
+        boolean blockPacked = segmentFormat == SegmentConstants.Format.BLOCK_PACKED;
+        ByteArrayOutputStream block = new ByteArrayOutputStream(blockPacked ? blockMaxBytes + 4096 : 0);
+        List<IndexEntry> blockEntries = new ArrayList<>();
+        int next = 0;
+
+        for (int i = 0; i < batch.size(); i++) {
+            while (next < batch.size() && next - i < fetchConcurrency) {
+                byte[] ready = sampled.remove(next);
+                prefetched.addLast(ready != null
+                        ? CompletableFuture.completedFuture(ready)
+                        : loadL0Frame(batch.get(next)).thenApplyAsync(ZstdCodec::decompress, cpuExecutor));
+                next++;
+            }
+            MessageRef msgRef = batch.get(i);
+            byte[] json = prefetched.removeFirst().join();
+
+            if (!blockPacked) {
+                // format v1: 1 zstd frame/record (dùng dictionary của tenant/tháng nếu có)
+                IndexEntry entry = newEntry(msgRef).build();
+                encoding.addLast(CompletableFuture.supplyAsync(
+                        () -> new EncodedUnit(compress(json, dict), List.of(entry)), cpuExecutor));
+            } else {
+                // format v2: gom record (JSONL) thành block rồi nén 1 frame/block
+                blockEntries.add(newEntry(msgRef)
+                        .recordOffset(block.size())
+                        .recordLength(json.length)
+                        .build());
+                block.writeBytes(json);
+                block.write('\n');
+                if (blockEntries.size() >= recordsPerBlock || block.size() >= blockMaxBytes) {
+                    encoding.addLast(encodeBlock(block, blockEntries, dict));
+                    blockEntries = new ArrayList<>();
                 }
             }
-            if (!bucket.isEmpty()) {
-                compactGroup("default", YearMonth.now(ZoneOffset.UTC).toString(), conv, bucket);
+            drainEncoded(encoding, upload, idx, encodeParallelism);
+        }
+        if (!blockEntries.isEmpty()) {
+            encoding.addLast(encodeBlock(block, blockEntries, dict));
+        }
+        drainEncoded(encoding, upload, idx, 0);
+    }
+
+    private CompletableFuture<EncodedUnit> encodeBlock(ByteArrayOutputStream block, List<IndexEntry> entries,
+                                                       Optional<ZstdDictionaryService.SegmentDict> dict) {
+        byte[] plain = block.toByteArray();
+        block.reset();
+        return CompletableFuture.supplyAsync(() -> new EncodedUnit(compress(plain, dict), entries), cpuExecutor);
+    }
+
+    // ghi các unit đã nén theo thứ tự; chờ unit đầu hàng khi số unit đang nén vượt giới hạn
+    private static void drainEncoded(Deque<CompletableFuture<EncodedUnit>> encoding, SegmentUpload upload,
+                                     List<IndexEntry> idx, int maxPending) {
+        while (!encoding.isEmpty() && (encoding.size() > maxPending || encoding.peekFirst().isDone())) {
+            EncodedUnit unit = encoding.removeFirst().join();
+            long offset = upload.position();
+            upload.write(unit.frame());
+            for (IndexEntry e : unit.entries()) {
+                e.setOffset(offset);
+                e.setLength(unit.frame().length);
+            }
+            idx.addAll(unit.entries());
+        }
+    }
+
+    private static IndexEntry.IndexEntryBuilder newEntry(MessageRef msgRef) {
+        return IndexEntry.builder()
+                .msgId(msgRef.getId())
+                .seq(msgRef.getSeq())
+                .createdAt(epochMillis(msgRef));
+    }
+
+    private byte[] compress(byte[] plain, Optional<ZstdDictionaryService.SegmentDict> dict) {
+        return stageMetrics.time(StageMetrics.Stage.RECOMPRESS, () -> dict.isPresent()
+                ? ZstdCodec.compress(plain, dict.get().compress())
+                : ZstdCodec.compress(plain, 9));
+    }
+
+    private static Long epochMillis(MessageRef msgRef) {
+        return msgRef.getCreatedAt() == null ? null : msgRef.getCreatedAt().toInstant().toEpochMilli();
+    }
+
+    private static String toRefId(String segUlid, IndexEntry e) {
+        if (e.getRecordOffset() == null) {
+            return PrefixConstants.Ref.MESSAGE_REF.formatted(segUlid, e.getOffset(), e.getLength());
+        }
+        return PrefixConstants.Ref.MESSAGE_REF_BLOCK.formatted(
+                segUlid, e.getOffset(), e.getLength(), e.getRecordOffset(), e.getRecordLength());
+    }
+
+    // lấy mẫu rải đều trong batch để train dictionary (chỉ chạy khi tenant/tháng chưa có dictionary);
+    // fetch trong cửa sổ fetchConcurrency và dừng khi đủ maxSampleBytes -> bộ nhớ mẫu có giới hạn.
+    // Mẫu ghi vào kept theo vị trí trong batch để encodeSegment dùng lại.
+    private List<byte[]> sampleRecords(List<MessageRef> batch, Map<Integer, byte[]> kept) {
+        int step = Math.max(1, batch.size() / zstdDictionaryService.maxSamples());
+        long maxBytes = zstdDictionaryService.maxSampleBytes();
+        Deque<Map.Entry<Integer, CompletableFuture<ByteBuffer>>> inFlight = new ArrayDeque<>();
+        List<byte[]> sampled = new ArrayList<>();
+        long sampledBytes = 0;
+        int next = 0;
+        while (sampledBytes < maxBytes && (next < batch.size() || !inFlight.isEmpty())) {
+            while (next < batch.size() && inFlight.size() < fetchConcurrency) {
+                inFlight.addLast(Map.entry(next, loadL0Frame(batch.get(next))));
+                next += step;
             }
+            Map.Entry<Integer, CompletableFuture<ByteBuffer>> fetch = inFlight.removeFirst();
+            byte[] json = ZstdCodec.decompress(fetch.getValue().join());
+            sampled.add(json);
+            kept.put(fetch.getKey(), json);
+            sampledBytes += json.length;
+        }
+        inFlight.forEach(f -> f.getValue().cancel(true));
+        return sampled;
+    }
+
+    private record EncodedUnit(byte[] frame, List<IndexEntry> entries) {
+    }
+
+    private CompletableFuture<ByteBuffer> loadL0Frame(MessageRef msgRef) {
+        return stageMetrics.timeAsync(StageMetrics.Stage.L0_FETCH, fetchL0Frame(msgRef))
+                .thenApply(frame -> {
+                    stageMetrics.record(StageMetrics.Volume.COMPACTION_L0_READ, frame.remaining());
+                    return frame;
+                });
+    }
+
+    // L0 record: cas:<hash> là cả object, pack:<ulid>:<off>:<len> là 1 frame trong object gom nhóm
+    private CompletableFuture<ByteBuffer> fetchL0Frame(MessageRef msgRef) {
+        String refId = msgRef.getRefId();
+        if (refId.startsWith(PrefixConstants.Ref.PACK)) {
+            String[] parts = refId.split(":");
+            long off = Long.parseLong(parts[2]);
+            int len = Integer.parseInt(parts[3]);
+            return blobStore.rangeGetAsync(S3Objects.packKey(prefix, parts[1]), off, off + len - 1);
         }
+        String hash = refId.substring(PrefixConstants.Ref.CAS.length());
+        return blobStore.getAsync(S3Objects.casKey(prefix, hash));
     }
-}
\ No newline at end of file
+}
@@ -1,22 +1,202 @@
 package com.sds.phucth.chatstoragearch.services;
 
 import com.sds.phucth.chatstoragearch.consts.ConversationConstants;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cấp seq theo conversation.
+ * Mặc định 1 INCR / message. Bật app.seq.leasedRanges thì node giữ lease owner của conversation
+ * xin cả dải seq bằng 1 INCRBY rồi cấp local không khoá cho tới khi hết dải (seq có thể hở, luôn tăng).
+ * Node không phải owner báo lỗi ngay (không chờ, không INCR thường: INCR vượt dải của owner rồi owner lại cấp
+ * seq nhỏ hơn -> mất thứ tự): LeaseHeldElsewhereException -> HTTP 503 + Retry-After = thời gian lease còn lại,
+ * client gửi lại (tốt nhất route sticky theo conversation). Owner ngừng ghi thì lease hết hạn và node khác nhận;
+ * dải local hết hạn trước TTL nên handoff không bao giờ cấp trùng seq.
+ */
 @Service
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 public class ConversationSequenceService {
+    // KEYS[1]=owner KEYS[2]=seq ARGV[1]=node ARGV[2]=ttlMillis ARGV[3]=n
+    // -> seq cuối của dải, hoặc -(ms lease còn lại) nếu node khác đang giữ
+    private static final RedisScript<Long> RESERVE = new DefaultRedisScript<>("""
+            local owner = redis.call('get', KEYS[1])
+            if owner and owner ~= ARGV[1] then return -math.max(redis.call('pttl', KEYS[1]), 1) end
+            redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return redis.call('incrby', KEYS[2], ARGV[3])
+            """, Long.class);
+
+    // KEYS[1]=owner ARGV[1]=node
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end
+            return 0
+            """, Long.class);
+
     StringRedisTemplate redis;
+    NodeIdentity nodeIdentity;
+
+    Map<String, SeqRange> ranges = new ConcurrentHashMap<>();
+    // dải đang được xin theo conversation; lệnh Redis chạy ngoài mọi lock của map
+    Map<String, CompletableFuture<SeqRange>> refills = new ConcurrentHashMap<>();
+
+    @Value("${app.seq.leasedRanges.enabled:false}")
+    @NonFinal
+    boolean leasedRanges;
+
+    @Value("${app.seq.leasedRanges.rangeSize:100}")
+    @NonFinal
+    int rangeSize;
+
+    @Value("${app.seq.leasedRanges.leaseTtlMillis:10000}")
+    @NonFinal
+    long leaseTtlMillis;
+
+    @PostConstruct
+    void init() {
+        if (leasedRanges && (rangeSize <= 0 || leaseTtlMillis <= 0)) {
+            throw new IllegalArgumentException("app.seq.leasedRanges.rangeSize and leaseTtlMillis must be positive");
+        }
+    }
 
     public long nextSeq(String conversationId) {
-        String key = ConversationConstants.Seq.NEXT_SEQ_FORMAT.formatted(conversationId);
-        return redis.opsForValue().increment(key);
+        if (!leasedRanges) {
+            String key = ConversationConstants.Seq.NEXT_SEQ_FORMAT.formatted(conversationId);
+            return redis.opsForValue().increment(key);
+        }
+        while (true) {
+            SeqRange range = ranges.get(conversationId);
+            if (range != null) {
+                long seq = range.take();
+                if (seq > 0) {
+                    return seq;
+                }
+            }
+            refill(conversationId, range);
+        }
+    }
+
+    // chỉ 1 thread / conversation xin dải mới; thread khác chờ chung future rồi dùng luôn dải đó
+    private SeqRange refill(String conversationId, SeqRange exhausted) {
+        CompletableFuture<SeqRange> mine = new CompletableFuture<>();
+        CompletableFuture<SeqRange> inFlight = refills.putIfAbsent(conversationId, mine);
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        try {
+            // thread khác có thể vừa nạp xong dải mới trước khi ta giành được quyền xin
+            SeqRange current = ranges.get(conversationId);
+            SeqRange fresh = current != null && current != exhausted ? current : reserve(conversationId);
+            if (fresh != current) {
+                ranges.put(conversationId, fresh);
+            }
+            mine.complete(fresh);
+            return fresh;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            refills.remove(conversationId, mine);
+        }
+    }
+
+    private SeqRange reserve(String conversationId) {
+        List<String> keys = List.of(
+                ConversationConstants.Seq.OWNER_FORMAT.formatted(conversationId),
+                ConversationConstants.Seq.NEXT_SEQ_FORMAT.formatted(conversationId));
+        // hạn local tính từ trước khi gửi lệnh -> luôn hết trước TTL phía Redis, dải cũ không thể
+        // còn được dùng khi node khác đã nhận lease và xin dải cao hơn
+        long sentAt = System.nanoTime();
+        Long hi = redis.execute(RESERVE, keys, nodeIdentity.id(), Long.toString(leaseTtlMillis), Integer.toString(rangeSize));
+        if (hi == null) {
+            throw new IllegalStateException("Sequence reservation for conversation " + conversationId + " returned no result");
+        }
+        if (hi < 0) {
+            throw new LeaseHeldElsewhereException(conversationId, -hi);
+        }
+        long validNanos = TimeUnit.MILLISECONDS.toNanos(leaseTtlMillis * 9 / 10);
+        return new SeqRange(hi - rangeSize + 1, hi, sentAt + validNanos);
+    }
+
+    // dải hết hạn không dùng được nữa -> bỏ khỏi map để map không phình theo số conversation từng ghi
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpiredRanges() {
+        ranges.values().removeIf(SeqRange::expired);
+    }
+
+    /** Bỏ các dải đang giữ rồi trả lease để node khác nhận ngay, không phải chờ TTL. */
+    @PreDestroy
+    void releaseAll() {
+        List<String> owned = List.copyOf(ranges.keySet());
+        ranges.clear();
+        for (String conversationId : owned) {
+            try {
+                redis.execute(RELEASE, List.of(ConversationConstants.Seq.OWNER_FORMAT.formatted(conversationId)), nodeIdentity.id());
+            } catch (Exception e) {
+                log.warn("Failed to release sequence lease for {}: {}", conversationId, e.getMessage());
+            }
+        }
+    }
+
+    /** Node khác đang giữ lease seq của conversation; gửi lại sau retryAfterMillis (hoặc tới node owner). */
+    public static class LeaseHeldElsewhereException extends RuntimeException {
+        private final long retryAfterMillis;
+
+        public LeaseHeldElsewhereException(String conversationId, long retryAfterMillis) {
+            super("Sequence lease for conversation " + conversationId + " is held by another node");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long retryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    private static final class SeqRange {
+        private final AtomicLong next;
+        private final long last;
+        private final long deadlineNanos;
+
+        private SeqRange(long first, long last, long deadlineNanos) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean expired() {
+            return System.nanoTime() - deadlineNanos >= 0;
+        }
+
+        // seq kế tiếp, hoặc -1 khi dải đã hết / lease có thể đã hết hạn
+        long take() {
+            if (expired()) {
+                return -1;
+            }
+            long seq = next.getAndIncrement();
+            return seq <= last ? seq : -1;
+        }
     }
 }
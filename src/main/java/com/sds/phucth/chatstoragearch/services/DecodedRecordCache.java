@@ -0,0 +1,124 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache record đã giải nén theo msgId. Nội dung 1 msgId không bao giờ đổi (CAS hay segment đều là
+ * cùng canonical JSON), nên entry vẫn đúng sau khi compaction đổi refId từ cas: sang seg:.
+ * Writer đưa canonical bytes vào ngay khi ghi -> đọc lại ngay sau khi gửi không cần GET S3 hay zstd.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class DecodedRecordCache {
+    // Map đã parse tốn bộ nhớ hơn JSON gốc khá nhiều -> nhân hệ số khi tính weight
+    private static final int PARSED_OVERHEAD_FACTOR = 3;
+
+    ObjectMapper objectMapper;
+    MeterRegistry meterRegistry;
+
+    @Value("${app.cache.records.enabled:true}")
+    @NonFinal
+    boolean enabled;
+
+    @Value("${app.cache.records.maxBytes:134217728}")
+    @NonFinal
+    long maxBytes;
+
+    @NonFinal
+    Cache<String, Entry> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String msgId, Entry e) -> e.json.length * PARSED_OVERHEAD_FACTOR)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "decoded.records");
+    }
+
+    /**
+     * Ghi canonical JSON của record; Map chỉ được parse khi có người đọc.
+     * Caller không được sửa mảng sau khi đưa vào.
+     */
+    public void put(String msgId, byte[] canonicalJson) {
+        if (enabled && msgId != null && canonicalJson != null) {
+            cache.put(msgId, new Entry(canonicalJson, null));
+        }
+    }
+
+    public void putDecoded(String msgId, byte[] json, Map<String, Object> fields) {
+        if (enabled && msgId != null && json != null) {
+            cache.put(msgId, new Entry(json, Collections.unmodifiableMap(fields)));
+        }
+    }
+
+    public Map<String, Map<String, Object>> getAll(Collection<String> msgIds) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, Object>> out = new HashMap<>();
+        cache.getAllPresent(msgIds).forEach((msgId, entry) -> out.put(msgId, fields(entry)));
+        return out;
+    }
+
+    /** Canonical JSON gốc (không parse) -> dùng cho response stream thẳng bytes. */
+    public Map<String, byte[]> getAllRaw(Collection<String> msgIds) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+        Map<String, byte[]> out = new HashMap<>();
+        cache.getAllPresent(msgIds).forEach((msgId, entry) -> out.put(msgId, entry.json));
+        return out;
+    }
+
+    private Map<String, Object> fields(Entry entry) {
+        Map<String, Object> parsed = entry.fields;
+        if (parsed == null) {
+            parsed = Collections.unmodifiableMap(parse(entry.json));
+            entry.fields = parsed;
+        }
+        return parsed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parse(byte[] json) {
+        try {
+            return objectMapper.readValue(json, Map.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] json;
+        // parse lười, race chỉ khiến parse 2 lần
+        volatile Map<String, Object> fields;
+
+        Entry(byte[] json, Map<String, Object> fields) {
+            this.json = json;
+            this.fields = fields;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * BlobStore trên đĩa cục bộ cho deployment on-prem không có object store.
+ * Key -> root/&lt;2 hex shard&gt;/key (shard theo hash của key như cas/ shard theo tiền tố hash) để mỗi thư mục không quá đông.
+ * Ghi: file tạm cùng thư mục -> (fsync) -> rename atomic, reader không bao giờ thấy object ghi dở.
+ * Đọc: mmap cả file 1 lần (object bất biến), get/rangeGet trả slice của mapping -> không copy, đọc trúng page cache.
+ */
+@Service
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "filesystem")
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class FileSystemBlobStore implements BlobStore {
+    private static final String UPLOADS_DIR = ".uploads";
+    private static final String TMP_MARKER = ".tmp-";
+
+    // IO file chặn thread -> virtual thread
+    Executor ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${app.storage.filesystem.root:./data/blobs}")
+    @NonFinal
+    String rootDir;
+
+    @Value("${app.storage.filesystem.fsync:true}")
+    @NonFinal
+    boolean fsync;
+
+    @Value("${app.storage.filesystem.mappedFiles:4096}")
+    @NonFinal
+    int mappedFiles;
+
+    @NonFinal
+    Path root;
+
+    @NonFinal
+    Cache<String, MappedByteBuffer> mappings;
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Path.of(rootDir).toAbsolutePath();
+        Files.createDirectories(root.resolve(UPLOADS_DIR));
+        sweepLeftovers();
+        // mapping bị bỏ khỏi cache thì được GC unmap; slice đang dùng vẫn giữ mapping sống
+        mappings = Caffeine.newBuilder().maximumSize(mappedFiles).build();
+        log.info("Filesystem blob store at {} (fsync={})", root, fsync);
+    }
+
+    @Override
+    public boolean local() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, byte[] bytes, String contentType) {
+        checkPut(key, bytes);
+        return supply(() -> {
+            Path target = path(key);
+            publish(key, writeTemp(target, bytes), target);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsentAsync(String key, byte[] bytes, String contentType) {
+        checkPut(key, bytes);
+        return supply(() -> {
+            Path target = path(key);
+            Path tmp = writeTemp(target, bytes);
+            // hard link tạo tên mới nguyên tử và báo lỗi nếu tên đã có (rename thì ghi đè)
+            try {
+                Files.createLink(target, tmp);
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            forceDirectory(target.getParent());
+            return true;
+        });
+    }
+
+    private static void checkPut(String key, byte[] bytes) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("Blob key cannot be null or empty");
+        }
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalArgumentException("Bytes cannot be null or empty");
+        }
+    }
+
+    private Path writeTemp(Path target, byte[] bytes) throws IOException {
+        Path tmp = tempFile(target);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer src = ByteBuffer.wrap(bytes);
+            while (src.hasRemaining()) {
+                ch.write(src);
+            }
+            if (fsync) {
+                ch.force(true);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return tmp;
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(String key) {
+        return supply(() -> map(key).duplicate());
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> rangeGetAsync(String key, long start, long endInclusive) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Start position cannot be negative");
+        }
+        if (endInclusive < start) {
+            throw new IllegalArgumentException("End position cannot be less than start position");
+        }
+        return supply(() -> {
+            MappedByteBuffer file = map(key);
+            int from = (int) Math.min(start, file.capacity());
+            int to = (int) Math.min(endInclusive + 1, file.capacity());
+            return file.slice(from, to - from);
+        });
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> suffixGetAsync(String key, long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Suffix length must be positive");
+        }
+        return supply(() -> {
+            MappedByteBuffer file = map(key);
+            int len = (int) Math.min(n, file.capacity());
+            return file.slice(file.capacity() - len, len);
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> createMultipartUploadAsync(String key, String contentType) {
+        return supply(() -> {
+            String uploadId = UUID.randomUUID().toString();
+            Files.createDirectories(uploadDir(uploadId));
+            return uploadId;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Part> uploadPartAsync(String key, String uploadId, int partNumber, byte[] bytes) {
+        return supply(() -> {
+            Path part = uploadDir(uploadId).resolve(Integer.toString(partNumber));
+            Files.write(part, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return new Part(partNumber, Integer.toString(bytes.length));
+        });
+    }
+
+    // ghép part vào file tạm cạnh đích rồi rename -> object xuất hiện nguyên vẹn như S3 complete
+    @Override
+    public CompletableFuture<Void> completeMultipartUploadAsync(String key, String uploadId, List<Part> parts) {
+        return supply(() -> {
+            Path target = path(key);
+            Path tmp = tempFile(target);
+            Path dir = uploadDir(uploadId);
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (Part part : parts.stream().sorted(Comparator.comparingInt(Part::partNumber)).toList()) {
+                    try (FileChannel in = FileChannel.open(dir.resolve(Integer.toString(part.partNumber())), StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long pos = 0;
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    }
+                }
+                if (fsync) {
+                    out.force(true);
+                }
+            }
+            publish(key, tmp, target);
+            deleteRecursively(dir);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> abortMultipartUploadAsync(String key, String uploadId) {
+        return supply(() -> {
+            deleteRecursively(uploadDir(uploadId));
+            return null;
+        });
+    }
+
+    Path path(String key) {
+        String shard = "%02x".formatted(key.hashCode() & 0xff);
+        Path p = root.resolve(shard).resolve(key).normalize();
+        if (!p.startsWith(root)) {
+            throw new IllegalArgumentException("Blob key escapes storage root: " + key);
+        }
+        return p;
+    }
+
+    private MappedByteBuffer map(String key) {
+        return mappings.get(key, k -> {
+            try (FileChannel ch = FileChannel.open(path(k), StandardOpenOption.READ)) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (NoSuchFileException e) {
+                log.warn("Object not found on disk: {}", k);
+                throw new RuntimeException("Object not found: " + k, e);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map " + k, e);
+            }
+        });
+    }
+
+    private Path tempFile(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        return target.resolveSibling(target.getFileName() + TMP_MARKER + UUID.randomUUID());
+    }
+
+    private void publish(String key, Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        forceDirectory(target.getParent());
+        // key ghi lại (CAS cùng hash) -> mapping cũ trỏ inode cũ, bỏ đi để lần đọc sau map file mới
+        mappings.invalidate(key);
+    }
+
+    // rename chỉ bền khi entry của thư mục cha đã xuống đĩa -> force thư mục sau khi publish
+    private void forceDirectory(Path dir) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Windows không mở được thư mục như file -> không fsync thư mục được, NTFS tự journal metadata
+            return;
+        }
+        try (ch) {
+            ch.force(true);
+        }
+    }
+
+    // file .tmp-* và thư mục .uploads/<id> còn sót khi process chết giữa chừng -> không ai dọn nữa, xoá lúc khởi động
+    private void sweepLeftovers() throws IOException {
+        Path uploads = root.resolve(UPLOADS_DIR);
+        int removed = 0;
+        try (Stream<Path> dirs = Files.list(uploads)) {
+            for (Path dir : dirs.toList()) {
+                deleteRecursively(dir);
+                removed++;
+            }
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path tmp : walk.filter(p -> !p.startsWith(uploads) && p.getFileName().toString().contains(TMP_MARKER)).toList()) {
+                Files.deleteIfExists(tmp);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Removed {} leftover temp files/uploads from {}", removed, root);
+        }
+    }
+
+    private Path uploadDir(String uploadId) {
+        return root.resolve(UPLOADS_DIR).resolve(uploadId);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(IoSupplier<T> action) {
+        return CompletableFuture.supplyAsync(unchecked(action), ioExecutor);
+    }
+
+    private static <T> Supplier<T> unchecked(IoSupplier<T> action) {
+        return () -> {
+            try {
+                return action.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+}
@@ -1,6 +1,8 @@
 package com.sds.phucth.chatstoragearch.services;
 
 import com.sds.phucth.chatstoragearch.consts.IdempotencyConstants;
+import com.sds.phucth.chatstoragearch.utils.TimeBucketedBloomFilter;
+import jakarta.annotation.PostConstruct;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -8,16 +10,36 @@ import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * Idempotency theo clientMsgId: 1 lệnh Lua duy nhất giữ chỗ hoặc trả về msgId đã giữ trước đó.
+ * Bloom filter local (theo cửa sổ thời gian) cho biết clientMsgId chắc chắn chưa thấy trên node này,
+ * khi đó writer chạy reserve song song với phần còn lại của write thay vì chờ trước.
+ */
 @Service
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 public class IdempotencyService {
+    // KEYS[1]=seen ARGV[1]=msgId ARGV[2]=ttlSeconds -> msgId đã giữ trước đó, nil nếu vừa giữ chỗ thành công
+    private static final RedisScript<String> RESERVE = new DefaultRedisScript<>("""
+            local existing = redis.call('get', KEYS[1])
+            if existing then return existing end
+            redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2])
+            return false
+            """, String.class);
+
+    // KEYS[1]=seen ARGV[1]=msgId
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end
+            return 0
+            """, Long.class);
 
     StringRedisTemplate redis;
 
@@ -25,14 +47,47 @@ public class IdempotencyService {
     @NonFinal
     int ttl;
 
-    public boolean markIfFirst(String clientMsgId, String msgId) {
+    @Value("${app.idempotency.filter.buckets:4}")
+    @NonFinal
+    int filterBuckets;
+
+    @Value("${app.idempotency.filter.expectedPerBucket:1000000}")
+    @NonFinal
+    int expectedPerBucket;
+
+    @Value("${app.idempotency.filter.fpp:0.01}")
+    @NonFinal
+    double fpp;
+
+    @NonFinal
+    TimeBucketedBloomFilter recentlySeen;
+
+    @PostConstruct
+    void init() {
+        // cửa sổ filter phủ đủ TTL của key Redis
+        long bucketMillis = Math.max(1000L, ttl * 1000L / Math.max(1, filterBuckets - 1));
+        recentlySeen = new TimeBucketedBloomFilter(filterBuckets, bucketMillis, expectedPerBucket, fpp);
+    }
+
+    /** false -> clientMsgId chắc chắn chưa đi qua node này trong cửa sổ TTL (có thể đã đi qua node khác). */
+    public boolean maybeSeen(String clientMsgId) {
+        return recentlySeen.mightContain(clientMsgId);
+    }
+
+    /** Giữ chỗ clientMsgId cho msgId; trả về msgId cũ nếu clientMsgId đã được giữ trước đó. */
+    public Optional<String> reserve(String clientMsgId, String msgId) {
         String key = IdempotencyConstants.KeyFormat.SEEN.formatted(clientMsgId);
-        Boolean ok = redis.opsForValue().setIfAbsent(key, msgId, Duration.ofSeconds(ttl));
-        return Boolean.TRUE.equals(ok);
+        String existing = redis.execute(RESERVE, List.of(key), msgId, Integer.toString(ttl));
+        recentlySeen.put(clientMsgId);
+        return Optional.ofNullable(existing);
     }
 
-    public Optional<String> already(String clientMsgId) {
-        String v = redis.opsForValue().get(IdempotencyConstants.KeyFormat.SEEN.formatted(clientMsgId));
-        return Optional.ofNullable(v);
+    /** Write thất bại sau khi đã giữ chỗ -> trả lại để client retry được. */
+    public void release(String clientMsgId, String msgId) {
+        try {
+            redis.execute(RELEASE, List.of(IdempotencyConstants.KeyFormat.SEEN.formatted(clientMsgId)), msgId);
+        } catch (Exception e) {
+            log.warn("Failed to release idempotency reservation {}: {}", clientMsgId, e.getMessage());
+        }
     }
 }
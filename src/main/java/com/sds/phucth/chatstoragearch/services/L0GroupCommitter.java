@@ -0,0 +1,155 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.consts.PrefixConstants;
+import com.sds.phucth.chatstoragearch.consts.S3Constants;
+import com.sds.phucth.chatstoragearch.models.MessageRef;
+import com.sds.phucth.chatstoragearch.repository.MessageRefRepository;
+import com.sds.phucth.chatstoragearch.utils.S3Objects;
+import com.sds.phucth.chatstoragearch.utils.Ulids;
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gom các writeL0 đồng thời trong một cửa sổ ngắn (hoặc tới ngưỡng bytes/records) thành
+ * một object L0 nhiều record: mỗi record vẫn là 1 zstd frame, ref = pack:&lt;ulid&gt;:&lt;off&gt;:&lt;len&gt;.
+ * Mỗi caller chỉ được ack sau khi PUT S3 và batch insert MessageRef của cả cửa sổ thành công.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class L0GroupCommitter {
+    BlobStore blobStore;
+    MessageRefRepository messageRefRepository;
+    StageMetrics stageMetrics;
+
+    ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "l0-group-commit");
+        t.setDaemon(true);
+        return t;
+    });
+    Object lock = new Object();
+
+    @Value("${app.s3.prefix}")
+    @NonFinal
+    String prefix;
+
+    @Value("${app.l0.groupCommit.windowMillis:5}")
+    @NonFinal
+    long windowMillis;
+
+    @Value("${app.l0.groupCommit.maxBytes:1048576}")
+    @NonFinal
+    int maxBytes;
+
+    @Value("${app.l0.groupCommit.maxRecords:256}")
+    @NonFinal
+    int maxRecords;
+
+    @NonFinal
+    List<PendingWrite> pending = new ArrayList<>();
+    @NonFinal
+    int pendingBytes;
+    @NonFinal
+    ScheduledFuture<?> windowTimer;
+
+    /**
+     * Đưa 1 record (đã nén thành zstd frame) vào cửa sổ hiện tại.
+     * Future hoàn thành với refId pack:... khi cả cửa sổ đã flush xong.
+     */
+    public CompletableFuture<String> submit(MessageRef ref, byte[] frame) {
+        PendingWrite write = new PendingWrite(ref, frame, new CompletableFuture<>());
+        List<PendingWrite> full = null;
+        synchronized (lock) {
+            pending.add(write);
+            pendingBytes += frame.length;
+            if (pending.size() >= maxRecords || pendingBytes >= maxBytes) {
+                full = drain();
+            } else if (windowTimer == null) {
+                windowTimer = flusher.schedule(this::flushWindow, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            List<PendingWrite> batch = full;
+            flusher.execute(() -> flush(batch));
+        }
+        return write.done();
+    }
+
+    // gọi khi đang giữ lock
+    private List<PendingWrite> drain() {
+        List<PendingWrite> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        if (windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+        return batch;
+    }
+
+    private void flushWindow() {
+        List<PendingWrite> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        flush(batch);
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        String packUlid = Ulids.newUlid();
+        try {
+            int total = batch.stream().mapToInt(w -> w.frame().length).sum();
+            ByteArrayOutputStream data = new ByteArrayOutputStream(total);
+            long offset = 0L;
+            for (PendingWrite w : batch) {
+                data.write(w.frame());
+                w.ref().setRefId(PrefixConstants.Ref.PACK_REF.formatted(packUlid, offset, w.frame().length));
+                offset += w.frame().length;
+            }
+
+            // 1 mẫu cho cả cửa sổ; thời gian chờ của từng caller nằm ở write.stage{stage=group_commit}
+            stageMetrics.time(StageMetrics.Stage.BLOB_PUT, () -> blobStore.putBytes(
+                    S3Objects.packKey(prefix, packUlid), data.toByteArray(), S3Constants.ContentType.ZSTD));
+            stageMetrics.time(StageMetrics.Stage.DB_SAVE,
+                    () -> messageRefRepository.saveAll(batch.stream().map(PendingWrite::ref).toList()));
+
+            log.debug("Group commit pack {} flushed {} records ({} bytes)", packUlid, batch.size(), total);
+            batch.forEach(w -> w.done().complete(w.ref().getRefId()));
+        } catch (Exception e) {
+            log.error("Group commit flush failed for pack {} ({} records): {}", packUlid, batch.size(), e.getMessage(), e);
+            batch.forEach(w -> w.done().completeExceptionally(e));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<PendingWrite> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        flush(batch);
+        flusher.shutdown();
+    }
+
+    private record PendingWrite(MessageRef ref, byte[] frame, CompletableFuture<String> done) {
+    }
+}
@@ -22,6 +22,10 @@ import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 @Service
 @RequiredArgsConstructor
@@ -30,11 +34,16 @@ import java.util.Optional;
 public class L0WriterService {
     ConversationSequenceService conversationSequenceService;
     IdempotencyService idempotencyService;
-    S3Service s3Service;
+    BlobStore blobStore;
     MessageRefRepository messageRefRepository;
     ObjectMapper objectMapper;
     KafkaTemplate<String, byte[]> kafkaTemplate;
     StringRedisTemplate redisTemplate;
+    L0GroupCommitter l0GroupCommitter;
+    DecodedRecordCache decodedRecordCache;
+    StageMetrics stageMetrics;
+
+    Executor ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Value("${app.s3.prefix}")
     @NonFinal
@@ -43,74 +52,141 @@ public class L0WriterService {
     @Value("${topic.write}")
     @NonFinal
     String writeTopic;
-    public Optional<String> checkIfMessageAlreadyExists(String clientMsgId) {
-        return idempotencyService.already(clientMsgId);
-    }
+
+    @Value("${app.l0.groupCommit.enabled:false}")
+    @NonFinal
+    boolean groupCommitEnabled;
+
     public ChatRecord writeL0(String conversationId, String role, Object body,
                               Map<String, Object> meta, String clientMsgId) throws JsonProcessingException {
+        String messageId = Ulids.newUlid();
+
+        // idempotency: 1 lệnh reserve-or-return-existing duy nhất.
+        // filter local nói chắc chắn chưa thấy -> reserve chạy song song với seq/nén, chỉ chờ trước khi ghi bền
+        CompletableFuture<Optional<String>> reservation = null;
         if (clientMsgId != null) {
-            // idempotency
-            var exist = idempotencyService.already(clientMsgId);
-
-            if (exist.isPresent()) {
-                // Trả về lại thông tin đã ghi (tìm seq từ DB)
-                String msgId = exist.get();
-                MessageRef mr = messageRefRepository.findById(msgId)
-                        .orElseThrow(() -> new IllegalStateException("Idempotent msgId exists but not in DB"));
-                // Có thể đọc CAS để reconstruct đầy đủ record; tối thiểu trả seq + msgId
-                return ChatRecord.builder()
-                        .msgId(msgId)
-                        .conversationId(conversationId)
-                        .seq(mr.getSeq())
-                        .role(mr.getRole())
-                        .body(body) // hoặc null; tuỳ bạn muốn trả gì cho controller
-                        .meta(meta)
-                        .createdAt(mr.getCreatedAt())
-                        .build();
+            if (idempotencyService.maybeSeen(clientMsgId)) {
+                Optional<String> existing = stageMetrics.time(StageMetrics.Stage.IDEMPOTENCY,
+                        () -> idempotencyService.reserve(clientMsgId, messageId));
+                if (existing.isPresent()) {
+                    return duplicateOf(existing.get(), conversationId, body, meta);
+                }
+            } else {
+                reservation = CompletableFuture.supplyAsync(
+                        () -> idempotencyService.reserve(clientMsgId, messageId), ioExecutor);
             }
         }
-        String messageId = Ulids.newUlid();
-        long sequence = conversationSequenceService.nextSeq(conversationId);
 
-        var record = ChatRecord.builder()
-                .msgId(messageId)
-                .conversationId(conversationId)
-                .seq(sequence)
-                .role(role)
-                .body(body)
-                .meta(meta)
-                .createdAt(OffsetDateTime.now(ZoneOffset.UTC))
-                .build();
+        try {
+            long sequence = stageMetrics.time(StageMetrics.Stage.SEQ_ALLOC,
+                    () -> conversationSequenceService.nextSeq(conversationId));
 
-        // canonical JSON và hash CAS
-        byte[] canonical = CanonicalJson.toCanonicalBytes(record);
-        String hash = Hashing.sha256Hex(canonical);
-        byte[] zstd = ZstdCodec.compress(canonical, 6);
-        String key = S3Objects.casKey(prefix, hash);
+            var record = ChatRecord.builder()
+                    .msgId(messageId)
+                    .conversationId(conversationId)
+                    .seq(sequence)
+                    .role(role)
+                    .body(body)
+                    .meta(meta)
+                    .createdAt(OffsetDateTime.now(ZoneOffset.UTC))
+                    .build();
 
-        s3Service.putBytes(key, zstd, S3Constants.ContentType.ZSTD);
+            // canonical JSON + hash CAS trong 1 lượt ghi, nén zstd từ cùng buffer
+            long encodeStart = System.nanoTime();
+            CanonicalEncoder.Encoded encoded = CanonicalEncoder.encode(record, 6);
+            stageMetrics.record(StageMetrics.Stage.CANONICALIZE, System.nanoTime() - encodeStart - encoded.compressNanos());
+            stageMetrics.record(StageMetrics.Stage.COMPRESS, encoded.compressNanos());
+            byte[] canonical = encoded.canonical();
+            String hash = encoded.sha256Hex();
+            byte[] zstd = encoded.zstd();
 
-        // Save xuống db
+            MessageRef messageRef = MessageRef.builder()
+                    .id(messageId)
+                    .conversationId(conversationId)
+                    .seq(sequence)
+                    .role(role)
+                    .refId(PrefixConstants.Ref.CAS + hash)
+                    .storedBytes(zstd.length)
+                    .createdAt(OffsetDateTime.now(ZoneOffset.UTC))
+                    .meta(meta == null ? null : objectMapper.writeValueAsString(meta))
+                    .build();
 
-        MessageRef messageRef = MessageRef.builder()
-                .id(messageId)
-                .conversationId(conversationId)
-                .seq(sequence)
-                .role(role)
-                .refId(PrefixConstants.Ref.CAS + hash)
-                .createdAt(OffsetDateTime.now(ZoneOffset.UTC))
-                .meta(meta == null ? null : objectMapper.writeValueAsString(meta))
-                .build();
+            if (reservation != null) {
+                CompletableFuture<Optional<String>> pendingReservation = reservation;
+                Optional<String> existing = stageMetrics.time(StageMetrics.Stage.IDEMPOTENCY,
+                        () -> awaitReservation(pendingReservation));
+                if (existing.isPresent()) {
+                    // retry đến từ node khác; seq vừa cấp bị bỏ (seq cho phép hở)
+                    return duplicateOf(existing.get(), conversationId, body, meta);
+                }
+            }
 
-        messageRefRepository.save(messageRef);
+            if (groupCommitEnabled) {
+                // PUT S3 + insert DB dùng chung cho cả cửa sổ, chờ flush xong mới ack
+                stageMetrics.time(StageMetrics.Stage.GROUP_COMMIT, () -> awaitGroupCommit(messageRef, zstd));
+            } else {
+                stageMetrics.time(StageMetrics.Stage.BLOB_PUT,
+                        () -> blobStore.putBytes(S3Objects.casKey(prefix, hash), zstd, S3Constants.ContentType.ZSTD));
+                // Save xuống db
+                stageMetrics.time(StageMetrics.Stage.DB_SAVE, () -> messageRefRepository.save(messageRef));
+            }
+            // read-your-writes: đọc ngay sau khi gửi lấy thẳng từ cache
+            decodedRecordCache.put(messageId, canonical);
 
-        if (clientMsgId != null) {
-            idempotencyService.markIfFirst(clientMsgId, messageId);
+            // send không chặn -> đo tới khi broker ack
+            stageMetrics.timeAsync(StageMetrics.Stage.KAFKA_SEND, kafkaTemplate.send(writeTopic, conversationId,
+                    CanonicalJson.toCanonicalBytes(Map.of("msgId", messageId, "conversationId", conversationId,
+                            "seq", sequence, "hash", hash, "bytes", zstd.length))));
+
+            return record;
+        } catch (RuntimeException | JsonProcessingException e) {
+            if (clientMsgId != null) {
+                // chờ reserve (nếu còn đang bay) rồi mới trả chỗ, để client retry không bị báo trùng
+                if (reservation != null) {
+                    reservation.exceptionally(err -> Optional.empty()).join();
+                }
+                idempotencyService.release(clientMsgId, messageId);
+            }
+            throw e;
+        }
+    }
+
+    // Trả về lại thông tin đã ghi (tìm seq từ DB); bản gốc có thể vẫn đang ghi dở -> chỉ có msgId
+    private ChatRecord duplicateOf(String msgId, String conversationId, Object body, Map<String, Object> meta) {
+        var duplicate = ChatRecord.builder()
+                .msgId(msgId)
+                .conversationId(conversationId)
+                .body(body)
+                .meta(meta)
+                .duplicate(true);
+        messageRefRepository.findById(msgId).ifPresent(mr -> duplicate
+                .seq(mr.getSeq())
+                .role(mr.getRole())
+                .createdAt(mr.getCreatedAt()));
+        return duplicate.build();
+    }
+
+    private static Optional<String> awaitReservation(CompletableFuture<Optional<String>> reservation) {
+        try {
+            return reservation.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException("Idempotency reservation failed", cause);
         }
-        kafkaTemplate.send(writeTopic, conversationId, CanonicalJson.toCanonicalBytes(
-                Map.of("msgId", messageId, "conversationId", conversationId, "seq", sequence, "hash", hash)
-        ));
+    }
 
-        return record;
+    private void awaitGroupCommit(MessageRef messageRef, byte[] frame) {
+        try {
+            l0GroupCommitter.submit(messageRef, frame).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException("Group commit failed for message " + messageRef.getId(), cause);
+        }
     }
 }
@@ -0,0 +1,252 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sds.phucth.chatstoragearch.models.MessageRef;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Đẩy record mới của conversation tới subscriber (SSE) từ event topic.write thay vì client poll GET.
+ * Record lấy từ DecodedRecordCache (writer cùng node vừa đưa vào), miss thì đọc qua ReaderService.
+ * Listener Kafka chỉ parse event và xếp vào hàng đợi của từng subscription; load record và gửi SSE
+ * chạy trên virtual thread, mỗi subscription 1 hàng đợi tuần tự -> client chậm hoặc miss cache không chặn conversation khác.
+ * Kafka giữ thứ tự gửi chứ không phải thứ tự seq (2 writeL0 đồng thời có thể publish 6 trước 5)
+ * -> chống trùng bằng tập seq đã gửi (có giới hạn), không dùng 1 mốc seq lớn nhất.
+ * Resume: subscriber gửi seq cuối đã nhận -> backfill từ DB/S3 rồi mới nối vào luồng live.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class LiveTailService {
+    // số seq > floor nhớ được mỗi subscription; seq bị bỏ (hở) không bao giờ tới -> đẩy floor lên khi đầy
+    private static final int MAX_TRACKED_SEQS = 1024;
+
+    ReaderService readerService;
+    DecodedRecordCache decodedRecordCache;
+    ObjectMapper objectMapper;
+
+    Map<String, Set<Subscription>> subscribers = new ConcurrentHashMap<>();
+    Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${app.liveTail.backfillPageSize:200}")
+    @NonFinal
+    int backfillPageSize;
+
+    @Value("${app.liveTail.maxQueuedPerSubscriber:1000}")
+    @NonFinal
+    int maxQueued;
+
+    /** fromSeq = seq cuối client đã có (null -> chỉ nhận record mới). */
+    public void subscribe(String conversationId, Long fromSeq, SseEmitter emitter) {
+        Subscription sub = new Subscription(conversationId, emitter, fromSeq);
+        subscribers.computeIfAbsent(conversationId, k -> ConcurrentHashMap.newKeySet()).add(sub);
+        emitter.onCompletion(() -> unsubscribe(sub));
+        emitter.onTimeout(() -> unsubscribe(sub));
+        emitter.onError(e -> unsubscribe(sub));
+        if (fromSeq != null) {
+            executor.execute(() -> backfill(sub, fromSeq));
+        }
+    }
+
+    @KafkaListener(id = "live-tail", idIsGroup = false,
+            topicPartitions = @TopicPartition(topic = "${topic.write}", partitions = "#{@liveTailPartitions}"),
+            containerFactory = "liveTailListenerContainerFactory",
+            autoStartup = "${app.liveTail.enabled:true}")
+    public void onWritten(ConsumerRecord<String, byte[]> event) {
+        // key = conversationId -> conversation không ai nghe thì bỏ qua, không parse
+        Set<Subscription> subs = event.key() == null ? null : subscribers.get(event.key());
+        if (subs == null || subs.isEmpty()) {
+            return;
+        }
+        try {
+            JsonNode written = objectMapper.readTree(event.value());
+            String msgId = written.path("msgId").asText(null);
+            long seq = written.path("seq").asLong();
+            // load 1 lần cho mọi subscriber của node, không chạy trên thread listener
+            CompletableFuture<byte[]> record = CompletableFuture.supplyAsync(
+                    () -> loadRecord(event.key(), msgId, seq), executor);
+            subs.forEach(sub -> sub.live(seq, record));
+        } catch (Exception e) {
+            log.error("Live tail failed on event for conversation {}: {}", event.key(), e.getMessage(), e);
+        }
+    }
+
+    private byte[] loadRecord(String conversationId, String msgId, long seq) {
+        byte[] json = decodedRecordCache.getAllRaw(List.of(msgId)).get(msgId);
+        if (json != null) {
+            return json;
+        }
+        ReaderService.RawWindow window = readerService.openRawWindow(conversationId, seq - 1, 1, true);
+        json = window.refs().stream()
+                .filter(ref -> ref.getId().equals(msgId))
+                .findFirst()
+                .map(window::await)
+                .orElse(null);
+        if (json == null) {
+            log.warn("Live tail could not load message {} of conversation {}", msgId, conversationId);
+        }
+        return json;
+    }
+
+    private void backfill(Subscription sub, long fromSeq) {
+        try {
+            long after = fromSeq;
+            List<MessageRef> refs;
+            do {
+                ReaderService.RawWindow window = readerService.openRawWindow(sub.conversationId, after, backfillPageSize, true);
+                refs = window.refs();
+                for (MessageRef ref : refs) {
+                    byte[] json = window.await(ref);
+                    if (json != null) {
+                        sub.send(ref.getSeq(), json);
+                    }
+                    after = ref.getSeq();
+                }
+            } while (refs.size() == backfillPageSize && !sub.closed);
+        } catch (Exception e) {
+            log.error("Live tail backfill failed for conversation {}: {}", sub.conversationId, e.getMessage(), e);
+        } finally {
+            sub.backfillDone();
+        }
+    }
+
+    private void unsubscribe(Subscription sub) {
+        sub.closed = true;
+        subscribers.computeIfPresent(sub.conversationId, (k, set) -> {
+            set.remove(sub);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /*
+     * Event live xếp hàng theo thứ tự đến; tối đa 1 task drain/subscription tại một thời điểm,
+     * và drain không chạy khi đang backfill -> mọi lần send của 1 subscription là tuần tự.
+     */
+    private final class Subscription {
+        final String conversationId;
+        final SseEmitter emitter;
+        final Deque<Pending> queue = new ArrayDeque<>();
+        // seq <= floor coi như client đã có; seq > floor đã gửi nằm trong sent
+        final TreeSet<Long> sent = new TreeSet<>();
+        long floor;
+        boolean backfilling;
+        boolean draining;
+        volatile boolean closed;
+
+        Subscription(String conversationId, SseEmitter emitter, Long fromSeq) {
+            this.conversationId = conversationId;
+            this.emitter = emitter;
+            this.floor = fromSeq == null ? Long.MIN_VALUE : fromSeq;
+            this.backfilling = fromSeq != null;
+        }
+
+        void live(long seq, CompletableFuture<byte[]> record) {
+            boolean overflow;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                overflow = queue.size() >= maxQueued;
+                if (!overflow) {
+                    queue.addLast(new Pending(seq, record));
+                    if (backfilling || draining) {
+                        return;
+                    }
+                    draining = true;
+                }
+            }
+            if (overflow) {
+                // client không đọc kịp -> đóng, client resume bằng Last-Event-ID
+                log.warn("Live tail subscriber of conversation {} fell {} events behind, closing", conversationId, maxQueued);
+                unsubscribe(this);
+                emitter.complete();
+                return;
+            }
+            executor.execute(this::drain);
+        }
+
+        void backfillDone() {
+            synchronized (this) {
+                backfilling = false;
+                if (queue.isEmpty() || draining) {
+                    return;
+                }
+                draining = true;
+            }
+            executor.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Pending next;
+                synchronized (this) {
+                    next = closed ? null : queue.pollFirst();
+                    if (next == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                byte[] json = next.record().exceptionally(e -> null).join();
+                if (json != null) {
+                    send(next.seq(), json);
+                }
+            }
+        }
+
+        // chỉ gọi từ backfill hoặc drain, không bao giờ đồng thời
+        void send(long seq, byte[] json) {
+            if (closed || seq <= floor || sent.contains(seq)) {
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event()
+                        .id(Long.toString(seq))
+                        .name("message")
+                        .data(new String(json, StandardCharsets.UTF_8)));
+                markSent(seq);
+            } catch (IOException | IllegalStateException e) {
+                // client đã đóng kết nối
+                unsubscribe(this);
+                emitter.completeWithError(e);
+            }
+        }
+
+        private void markSent(long seq) {
+            sent.add(seq);
+            // liền mạch từ floor -> gom vào floor
+            while (!sent.isEmpty() && sent.first() == floor + 1) {
+                floor = sent.pollFirst();
+            }
+            while (sent.size() > MAX_TRACKED_SEQS) {
+                floor = sent.pollFirst();
+            }
+        }
+    }
+
+    private record Pending(long seq, CompletableFuture<byte[]> record) {
+    }
+}
@@ -0,0 +1,33 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Định danh instance hiện tại (owner của lease, consumer group riêng, ...).
+ * Không cấu hình thì lấy HOSTNAME, cuối cùng là UUID ngẫu nhiên.
+ */
+@Component
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class NodeIdentity {
+    @Value("${app.node.id:${HOSTNAME:}}")
+    @NonFinal
+    String configured;
+
+    String id;
+
+    @PostConstruct
+    void init() {
+        id = configured == null || configured.isBlank() ? UUID.randomUUID().toString() : configured;
+    }
+
+    public String id() {
+        return id;
+    }
+}
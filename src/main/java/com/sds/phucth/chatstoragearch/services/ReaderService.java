@@ -2,23 +2,30 @@ package com.sds.phucth.chatstoragearch.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sds.phucth.chatstoragearch.consts.PrefixConstants;
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
 import com.sds.phucth.chatstoragearch.dto.SegRequest;
 import com.sds.phucth.chatstoragearch.dto.Slice;
 import com.sds.phucth.chatstoragearch.models.MessageRef;
 import com.sds.phucth.chatstoragearch.repository.MessageRefRepository;
+import com.sds.phucth.chatstoragearch.utils.FetchLimiter;
 import com.sds.phucth.chatstoragearch.utils.S3Objects;
-import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
+import com.sds.phucth.chatstoragearch.utils.SegmentRanges;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -28,53 +35,65 @@ import java.util.stream.Collectors;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
 public class ReaderService {
-    S3Service s3Service;
+    BlobStore blobStore;
     MessageRefRepository messageRefRepository;
     ObjectMapper objectMapper;
-    StringRedisTemplate redisTemplate;
-    
-    Executor executor = Executors.newFixedThreadPool(10);
+    SegmentCatalogService segmentCatalogService;
+    ScrollbackPrefetcher scrollbackPrefetcher;
+    SegmentBlockCache segmentBlockCache;
+    DecodedRecordCache decodedRecordCache;
+    ZstdDictionaryService zstdDictionaryService;
+    StageMetrics stageMetrics;
+    SegmentFooterReader segmentFooterReader;
+
+    // decode chạy trên virtual thread, không còn pool cố định để bị chiếm hết
+    Executor executor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Value("${app.s3.prefix}")
     @NonFinal
     String prefix;
 
+    @Value("${app.read.maxConcurrentFetches:32}")
+    @NonFinal
+    int maxConcurrentFetches;
+
     public List<Map<String,Object>> readWindow(String conversationId, long cursor, int limit, boolean asc) throws Exception {
         try {
-            if (conversationId == null || conversationId.trim().isEmpty()) {
-                throw new IllegalArgumentException("Conversation ID cannot be null or empty");
+            // đang cuộn ngược -> trang này có thể đã được prefetch (refs + record đang/đã về)
+            RawWindow prefetched = asc ? null : scrollbackPrefetcher.take(conversationId, cursor, limit);
+            List<MessageRef> refs = prefetched != null ? prefetched.refs() : loadRefs(conversationId, cursor, limit, asc);
+            if (!asc) {
+                scrollbackPrefetcher.onPageRead(conversationId, cursor, limit, refs,
+                        nextCursor -> openRawWindow(conversationId, nextCursor, limit, false));
             }
-            if (limit <= 0 || limit > 1000) {
-                throw new IllegalArgumentException("Limit must be between 1 and 1000");
-            }
-
-            List<MessageRef> refs = asc ?
-                    messageRefRepository.pageAsc(conversationId, cursor, limit)
-                    : messageRefRepository.pageDesc(conversationId, cursor, limit);
-
             if (refs.isEmpty()) {
                 return Collections.emptyList();
             }
 
-            Map<String, List<MessageRef>> casRefs = new HashMap<>();
-            Map<String, SegRequest> segRefs = new HashMap<>();
+            // record bất biến theo msgId -> cache hit thì bỏ qua cả S3 lẫn zstd/Jackson
+            Map<String, Map<String, Object>> cached = decodedRecordCache.getAll(
+                    refs.stream().map(MessageRef::getId).toList());
+            Map<String, CompletableFuture<byte[]>> raw = prefetched != null
+                    ? prefetched.records()
+                    : fetchRawRecords(refs, cached.keySet());
+            Map<String, CompletableFuture<Map<String, Object>>> decoded = new HashMap<>();
+            raw.forEach((msgId, json) -> {
+                if (!cached.containsKey(msgId)) {
+                    decoded.put(msgId, json.thenApplyAsync(
+                            bytes -> stageMetrics.time(StageMetrics.Stage.PARSE, () -> parseRecord(bytes)), executor));
+                }
+            });
 
+            List<Map<String, Object>> ordered = new ArrayList<>(refs.size());
             for (MessageRef ref : refs) {
-                String refId = ref.getRefId();
-                if (refId.startsWith(PrefixConstants.Ref.CAS)) {
-                    casRefs.computeIfAbsent(PrefixConstants.Ref.CAS_READ, k -> new ArrayList<>()).add(ref);
-                } else if (refId.startsWith(PrefixConstants.Ref.SEG)) {
-                    parseAndAddSegRef(ref, segRefs);
+                Map<String, Object> record = cached.containsKey(ref.getId())
+                        ? cached.get(ref.getId())
+                        : awaitRecord(ref, decoded.get(ref.getId()));
+                if (record != null) {
+                    ordered.add(record);
                 }
             }
-
-            CompletableFuture<List<Map<String, Object>>> casFuture = processCasRefs(casRefs);
-            CompletableFuture<List<Map<String, Object>>> segFuture = processSegRefs(segRefs);
-
-            List<Map<String, Object>> casResults = casFuture.get();
-            List<Map<String, Object>> segResults = segFuture.get();
-
-            return mergeResultsInOrder(refs, casResults, segResults);
+            return ordered;
 
         } catch (Exception e) {
             log.error("Error reading window for conversation {}: {}", conversationId, e.getMessage(), e);
@@ -82,193 +101,311 @@ public class ReaderService {
         }
     }
 
-    private void parseAndAddSegRef(MessageRef ref, Map<String, SegRequest> segRefs) {
+    /**
+     * Mở window để stream thẳng canonical JSON đã lưu ra response (không parse thành Map).
+     * Query DB + kick off fetch chạy ngay tại đây, ghi ra stream làm sau qua writeRawWindow.
+     */
+    public RawWindow openRawWindow(String conversationId, long cursor, int limit, boolean asc) {
+        List<MessageRef> refs = loadRefs(conversationId, cursor, limit, asc);
+        Map<String, byte[]> cached = decodedRecordCache.getAllRaw(refs.stream().map(MessageRef::getId).toList());
+        Map<String, CompletableFuture<byte[]>> records = new HashMap<>(fetchRawRecords(refs, cached.keySet()));
+        cached.forEach((msgId, json) -> records.put(msgId, CompletableFuture.completedFuture(json)));
+        return new RawWindow(conversationId, refs, records);
+    }
+
+    /**
+     * Ghi từng record theo đúng thứ tự seq ngay khi record đó sẵn sàng (JSON array hoặc NDJSON).
+     * Chỉ flush khi record kế tiếp chưa xong -> byte đầu tiên ra sớm mà không flush từng record.
+     */
+    public void writeRawWindow(RawWindow window, OutputStream out, boolean ndjson) throws IOException {
+        boolean first = true;
+        if (!ndjson) {
+            out.write('[');
+        }
+        for (MessageRef ref : window.refs()) {
+            CompletableFuture<byte[]> future = window.records().get(ref.getId());
+            if (future == null) {
+                continue;
+            }
+            if (!future.isDone()) {
+                out.flush();
+            }
+            byte[] json = window.await(ref);
+            if (json == null) {
+                continue;
+            }
+            if (!ndjson && !first) {
+                out.write(',');
+            }
+            out.write(json);
+            if (ndjson) {
+                out.write('\n');
+            }
+            first = false;
+        }
+        if (!ndjson) {
+            out.write(']');
+        }
+        out.flush();
+    }
+
+    private List<MessageRef> loadRefs(String conversationId, long cursor, int limit, boolean asc) {
+        if (conversationId == null || conversationId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Conversation ID cannot be null or empty");
+        }
+        if (limit <= 0 || limit > 1000) {
+            throw new IllegalArgumentException("Limit must be between 1 and 1000");
+        }
+        return stageMetrics.time(StageMetrics.Stage.SQL_PAGE, () -> asc ?
+                messageRefRepository.pageAsc(conversationId, cursor, limit)
+                : messageRefRepository.pageDesc(conversationId, cursor, limit));
+    }
+
+    private Map<String, Object> awaitRecord(MessageRef ref, CompletableFuture<Map<String, Object>> future) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            log.error("Error reading reference {}: {}", ref.getRefId(),
+                    e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * msgId -> canonical JSON đã giải nén của mọi ref không nằm trong skip.
+     * CAS: GET song song; seg/pack: gom range theo object, mỗi object 1 task giải nén lần lượt các slice
+     * và hoàn thành future của từng record ngay khi xong.
+     */
+    private Map<String, CompletableFuture<byte[]>> fetchRawRecords(List<MessageRef> refs, Set<String> skip) {
+        Map<String, CompletableFuture<byte[]>> records = new HashMap<>();
+        Map<String, SegRequest> segRefs = new HashMap<>();
+        // giới hạn số GET/range-get đang bay cho riêng request này
+        FetchLimiter limiter = new FetchLimiter(maxConcurrentFetches);
+        int casGets = 0;
+
+        for (MessageRef ref : refs) {
+            if (skip.contains(ref.getId())) {
+                continue;
+            }
+            String refId = ref.getRefId();
+            if (refId.startsWith(PrefixConstants.Ref.CAS)) {
+                records.put(ref.getId(), fetchCasRecord(ref, limiter));
+                casGets++;
+            } else if (refId.startsWith(PrefixConstants.Ref.SEG) || refId.startsWith(PrefixConstants.Ref.PACK)) {
+                parseAndAddRangeRef(ref, segRefs);
+            }
+        }
+        int rangeGets = 0;
+        if (!segRefs.isEmpty()) {
+            stageMetrics.time(StageMetrics.Stage.SEG_RESOLVE, () -> resolveDataKeys(segRefs));
+            for (SegRequest segRequest : segRefs.values()) {
+                rangeGets += fetchSegRecords(segRequest, limiter, records);
+            }
+        }
+        // số request phát ra cho mỗi window (0 = toàn bộ trúng cache record)
+        stageMetrics.record(StageMetrics.Volume.READ_CAS_GETS, casGets);
+        stageMetrics.record(StageMetrics.Volume.READ_RANGE_GETS, rangeGets);
+        return records;
+    }
+
+    // seg:<segULID>:<offset>:<length> và pack:<packULID>:<offset>:<length> cùng dạng range-read;
+    // segment block-packed (v2) thêm :<recordOffset>:<recordLength> trong block đã giải nén
+    private void parseAndAddRangeRef(MessageRef ref, Map<String, SegRequest> segRefs) {
         try {
             String[] parts = ref.getRefId().split(":");
-            if (parts.length != 4) {
-                log.warn("Invalid SEG reference format: {}", ref.getRefId());
+            if (parts.length != 4 && parts.length != 6) {
+                log.warn("Invalid range reference format: {}", ref.getRefId());
                 return;
             }
 
-            String segUlid = parts[1];
+            boolean pack = ref.getRefId().startsWith(PrefixConstants.Ref.PACK);
+            String ulid = parts[1];
             long offset = Long.parseLong(parts[2]);
             int length = Integer.parseInt(parts[3]);
 
-            segRefs.computeIfAbsent(segUlid, k -> SegRequest.builder()
-                    .segUlid(segUlid)
+            segRefs.computeIfAbsent(parts[0] + ":" + ulid, k -> SegRequest.builder()
+                    .segUlid(ulid)
+                    .conversationId(ref.getConversationId())
+                    .dataKey(pack ? S3Objects.packKey(prefix, ulid) : null)
                     .build())
                     .getSlices().add(Slice.builder()
                             .start(offset)
                             .length(length)
                             .messageId(ref.getId())
+                            .seq(ref.getSeq())
+                            .recordOffset(parts.length == 6 ? Integer.parseInt(parts[4]) : -1)
+                            .recordLength(parts.length == 6 ? Integer.parseInt(parts[5]) : 0)
                             .build());
         } catch (NumberFormatException e) {
-            log.warn("Invalid number format in SEG reference: {}", ref.getRefId(), e);
+            log.warn("Invalid number format in range reference: {}", ref.getRefId(), e);
         }
     }
 
-    private CompletableFuture<List<Map<String, Object>>> processCasRefs(Map<String, List<MessageRef>> casRefs) {
-        if (!casRefs.containsKey(PrefixConstants.Ref.CAS_READ)) {
-            return CompletableFuture.completedFuture(Collections.emptyList());
-        }
-        List<MessageRef> refs = casRefs.get(PrefixConstants.Ref.CAS_READ);
-        return CompletableFuture.supplyAsync(() -> {
-            List<Map<String, Object>> results = new ArrayList<>();
-            for (MessageRef ref : refs) {
-                try {
-                    String hash = ref.getRefId().substring(PrefixConstants.Ref.CAS.length()); // <-- fix
-                    byte[] comp = s3Service.getBytes(S3Objects.casKey(prefix, hash));
-                    byte[] json = ZstdCodec.decompress(comp);
-                    Map<String, Object> record = objectMapper.readValue(json, Map.class);
-                    results.add(record);
-                } catch (Exception e) {
-                    log.error("Error processing CAS reference {}: {}", ref.getRefId(), e.getMessage(), e);
-                }
-            }
-            return results;
-        }, executor);
+    // GET qua S3 async client, chỉ phần giải nén chạy trên executor
+    private CompletableFuture<byte[]> fetchCasRecord(MessageRef ref, FetchLimiter limiter) {
+        String hash = ref.getRefId().substring(PrefixConstants.Ref.CAS.length());
+        return limiter.submit(() -> stageMetrics.timeAsync(StageMetrics.Stage.FETCH,
+                        blobStore.getAsync(S3Objects.casKey(prefix, hash))))
+                .thenApplyAsync(frame -> {
+                    // CAS là nguyên object -> byte fetch đều là byte dùng
+                    stageMetrics.record(StageMetrics.Volume.READ_FETCHED, frame.remaining());
+                    stageMetrics.record(StageMetrics.Volume.READ_USED, frame.remaining());
+                    byte[] json = stageMetrics.time(StageMetrics.Stage.DECODE, () -> zstdDictionaryService.decompress(frame));
+                    decodedRecordCache.put(ref.getId(), json);
+                    return json;
+                }, executor);
     }
 
-    private CompletableFuture<List<Map<String, Object>>> processSegRefs(Map<String, SegRequest> segRefs) {
-        if (segRefs.isEmpty()) {
-            return CompletableFuture.completedFuture(Collections.emptyList());
+    // resolve dataKey cho mọi segment của window 1 lần (near-cache, miss gom thành 1 query)
+    private void resolveDataKeys(Map<String, SegRequest> segRefs) {
+        List<String> segUlids = segRefs.values().stream()
+                .filter(r -> r.getDataKey() == null)
+                .map(SegRequest::getSegUlid)
+                .toList();
+        if (!segUlids.isEmpty()) {
+            Map<String, String> dataKeys = segmentCatalogService.resolveDataKeys(segUlids);
+            segRefs.values().stream()
+                    .filter(r -> r.getDataKey() == null)
+                    .forEach(r -> r.setDataKey(dataKeys.get(r.getSegUlid())));
         }
-
-        return CompletableFuture.supplyAsync(() -> {
-            List<Map<String, Object>> results = new ArrayList<>();
-            for (SegRequest segRequest : segRefs.values()) {
-                try {
-                    results.addAll(processSegRequest(segRequest));
-                } catch (Exception e) {
-                    log.error("Error processing SEG request for {}: {}", segRequest.getSegUlid(), e.getMessage(), e);
-                }
-            }
-            return results;
-        }, executor);
     }
 
-    private List<Map<String, Object>> processSegRequest(SegRequest segRequest) throws Exception {
+    // thêm future của từng record vào out; trả số range-get đã phát
+    private int fetchSegRecords(SegRequest segRequest, FetchLimiter limiter, Map<String, CompletableFuture<byte[]>> out) {
         List<Slice> slices = segRequest.getSlices().stream()
                 .sorted(Comparator.comparingLong(Slice::getStart))
                 .collect(Collectors.toList());
+        Map<String, CompletableFuture<byte[]>> records = new LinkedHashMap<>();
+        slices.forEach(slice -> records.put(slice.getMessageId(), new CompletableFuture<>()));
+        out.putAll(records);
+
+        List<long[]> mergedRanges = SegmentRanges.mergeConsecutiveRanges(slices);
+        String dataKey = segRequest.getDataKey();
+        if (dataKey == null) {
+            // không có trong catalog: mở footer của object theo dataKey dựng lại rồi mới fetch
+            recoverFromFooter(segRequest, slices)
+                    .thenAccept(recovered -> fetchRanges(segRequest, recovered, slices, mergedRanges, records, limiter))
+                    .exceptionally(e -> {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        IllegalStateException missing = new IllegalStateException("Segment " + segRequest.getSegUlid()
+                                + " is not in the segment catalog and its footer could not be read", cause);
+                        records.values().forEach(f -> f.completeExceptionally(missing));
+                        return null;
+                    });
+            return mergedRanges.size();
+        }
+        fetchRanges(segRequest, dataKey, slices, mergedRanges, records, limiter);
+        return mergedRanges.size();
+    }
 
-        List<long[]> mergedRanges = mergeConsecutiveRanges(slices);
-
-        String dataKey = resolveSegKeyFromRedis(segRequest.getSegUlid());
-
-        Map<Long, byte[]> blockCache = new HashMap<>();
-        List<CompletableFuture<Void>> fetchTasks = mergedRanges.stream()
-                .map(range -> CompletableFuture.runAsync(() -> {
-                    try {
-                        byte[] block = s3Service.rangeGet(dataKey, range[0], range[1]);
-                        blockCache.put(range[0], block);
-                    } catch (Exception e) {
-                        log.error("Error fetching range [{}, {}] for segment {}: {}", 
-                                range[0], range[1], segRequest.getSegUlid(), e.getMessage(), e);
-                    }
-                }, executor))
-                .collect(Collectors.toList());
-
-        CompletableFuture.allOf(fetchTasks.toArray(new CompletableFuture[0])).join();
-
-        List<Map<String, Object>> results = new ArrayList<>();
-        for (Slice slice : slices) {
-            try {
-                byte[] block = findContainingBlock(slice, mergedRanges, blockCache);
-                if (block != null) {
-                    int offsetInBlock = (int) (slice.getStart() - findBlockStart(slice, mergedRanges));
-                    byte[] frame = Arrays.copyOfRange(block, offsetInBlock, offsetInBlock + slice.getLength());
-                    byte[] json = ZstdCodec.decompress(frame);
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> record = objectMapper.readValue(json, Map.class);
-                    results.add(record);
+    /*
+     * Footer trong object là nguồn sự thật cho segment: mọi slice phải khớp 1 entry (seq, msgId, offset, length)
+     * thì mới dùng dataKey dựng lại; khớp thì ghi nhớ vào near-cache của catalog.
+     */
+    private CompletableFuture<String> recoverFromFooter(SegRequest segRequest, List<Slice> slices) {
+        String dataKey = segmentFooterReader.dataKeyFor(segRequest.getConversationId(), segRequest.getSegUlid());
+        return segmentFooterReader.footer(dataKey).thenApply(footer -> {
+            for (Slice slice : slices) {
+                int i = footer.indexOfSeq(slice.getSeq());
+                IndexEntry entry = i >= 0 ? footer.entryAt(i) : null;
+                if (entry == null || !entry.getMsgId().equals(slice.getMessageId())
+                        || entry.getOffset() != slice.getStart() || entry.getLength() != slice.getLength()) {
+                    throw new IllegalStateException("Message " + slice.getMessageId() + " does not match footer of " + dataKey);
                 }
-            } catch (Exception e) {
-                log.error("Error processing slice {}: {}", slice.getMessageId(), e.getMessage(), e);
             }
-        }
-
-        return results;
+            log.info("Recovered segment {} from its footer at {}", segRequest.getSegUlid(), dataKey);
+            segmentCatalogService.remember(segRequest.getSegUlid(), dataKey);
+            return dataKey;
+        });
     }
 
-    private List<long[]> mergeConsecutiveRanges(List<Slice> slices) {
-        List<long[]> merged = new ArrayList<>();
-        long curStart = -1, curEnd = -1;
-
-        for (Slice slice : slices) {
-            long sliceStart = slice.getStart();
-            long sliceEnd = slice.getStart() + slice.getLength() - 1;
+    private void fetchRanges(SegRequest segRequest, String dataKey, List<Slice> slices, List<long[]> mergedRanges,
+                             Map<String, CompletableFuture<byte[]>> records, FetchLimiter limiter) {
+        // record cùng block v2 chung 1 frame -> đếm mỗi frame 1 lần
+        stageMetrics.record(StageMetrics.Volume.READ_USED, slices.stream()
+                .collect(Collectors.toMap(Slice::getStart, Slice::getLength, (a, b) -> a))
+                .values().stream().mapToLong(Integer::longValue).sum());
+        Map<Long, ByteBuffer> blockCache = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> fetchTasks = mergedRanges.stream()
+                .map(range -> stageMetrics.timeAsync(StageMetrics.Stage.FETCH,
+                                segmentBlockCache.rangeGet(dataKey, range[0], range[1], limiter))
+                        .thenAccept(block -> {
+                            stageMetrics.record(StageMetrics.Volume.READ_FETCHED, block.remaining());
+                            blockCache.put(range[0], block);
+                        })
+                        .exceptionally(e -> {
+                            log.error("Error fetching range [{}, {}] for segment {}: {}",
+                                    range[0], range[1], segRequest.getSegUlid(), e.getMessage(), e);
+                            return null;
+                        }))
+                .toList();
+
+        CompletableFuture.allOf(fetchTasks.toArray(new CompletableFuture[0]))
+                .thenRunAsync(() -> {
+                    // block v2 chứa nhiều record -> giải nén mỗi block đúng 1 lần
+                    Map<Long, byte[]> decodedBlocks = new HashMap<>();
+                    for (Slice slice : slices) {
+                        CompletableFuture<byte[]> record = records.get(slice.getMessageId());
+                        try {
+                            byte[] json = stageMetrics.time(StageMetrics.Stage.DECODE,
+                                    () -> decodeSlice(slice, mergedRanges, blockCache, decodedBlocks));
+                            decodedRecordCache.put(slice.getMessageId(), json);
+                            record.complete(json);
+                        } catch (Exception e) {
+                            record.completeExceptionally(e);
+                        }
+                    }
+                }, executor);
+    }
 
-            if (curStart == -1) {
-                curStart = sliceStart;
-                curEnd = sliceEnd;
-            } else if (sliceStart <= curEnd + 1) {
-                curEnd = Math.max(curEnd, sliceEnd);
-            } else {
-                merged.add(new long[]{curStart, curEnd});
-                curStart = sliceStart;
-                curEnd = sliceEnd;
-            }
+    private byte[] decodeSlice(Slice slice, List<long[]> mergedRanges, Map<Long, ByteBuffer> blockCache,
+                               Map<Long, byte[]> decodedBlocks) {
+        long[] range = SegmentRanges.containing(slice, mergedRanges);
+        ByteBuffer block = range == null ? null : blockCache.get(range[0]);
+        if (block == null) {
+            throw new IllegalStateException("Range for message " + slice.getMessageId() + " was not fetched");
         }
-
-        if (curStart != -1) {
-            merged.add(new long[]{curStart, curEnd});
+        // frame là view trên block đã fetch, giải nén thẳng không copy
+        ByteBuffer frame = SegmentRanges.frame(block, range[0], slice);
+        if (slice.getRecordOffset() < 0) {
+            return zstdDictionaryService.decompress(frame);
         }
-
-        return merged;
+        byte[] plain = decodedBlocks.computeIfAbsent(slice.getStart(), k -> zstdDictionaryService.decompress(frame));
+        // record được cache giữ lại theo msgId -> cần mảng riêng
+        return Arrays.copyOfRange(plain, slice.getRecordOffset(), slice.getRecordOffset() + slice.getRecordLength());
     }
 
-    private byte[] findContainingBlock(Slice slice, List<long[]> mergedRanges, Map<Long, byte[]> blockCache) {
-        for (long[] range : mergedRanges) {
-            if (slice.getStart() >= range[0] && (slice.getStart() + slice.getLength() - 1) <= range[1]) {
-                return blockCache.get(range[0]);
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parseRecord(byte[] json) {
+        try {
+            Map<String, Object> record = objectMapper.readValue(json, Map.class);
+            Object msgId = record.get("msgId");
+            if (msgId != null) {
+                decodedRecordCache.putDecoded(msgId.toString(), json, record);
             }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return null;
     }
 
-    private long findBlockStart(Slice slice, List<long[]> mergedRanges) {
-        for (long[] range : mergedRanges) {
-            if (slice.getStart() >= range[0] && (slice.getStart() + slice.getLength() - 1) <= range[1]) {
-                return range[0];
+    public record RawWindow(String conversationId, List<MessageRef> refs, Map<String, CompletableFuture<byte[]>> records) {
+        /** Chờ record của ref; null nếu không đọc được (đã log). */
+        public byte[] await(MessageRef ref) {
+            CompletableFuture<byte[]> future = records.get(ref.getId());
+            if (future == null) {
+                return null;
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                log.error("Error reading record {} of conversation {}: {}", ref.getId(), conversationId,
+                        e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                return null;
             }
         }
-        return 0;
-    }
-
-    private List<Map<String, Object>> mergeResultsInOrder(
-            List<MessageRef> originalRefs,
-            List<Map<String, Object>> casResults,
-            List<Map<String, Object>> segResults) {
-
-        Map<String, Map<String, Object>> byMsgId = new HashMap<>();
-        for (Map<String, Object> r : casResults) {
-            Object id = r.get("msgId");
-            if (id != null) byMsgId.put(id.toString(), r);
-        }
-        for (Map<String, Object> r : segResults) {
-            Object id = r.get("msgId");
-            if (id != null) byMsgId.put(id.toString(), r);
-        }
-
-        List<Map<String, Object>> ordered = new ArrayList<>(originalRefs.size());
-        for (MessageRef ref : originalRefs) {
-            Map<String, Object> r = byMsgId.get(ref.getId());
-            if (r != null) ordered.add(r);
-        }
-        return ordered;
-    }
-
-    private String resolveSegKeyFromRedis(String segUlid) {
-        String redisKey = "segKey:" + segUlid;
-        String s3Key = redisTemplate.opsForValue().get(redisKey);
-        if (s3Key == null || s3Key.isBlank()) {
-            throw new IllegalStateException("Missing Redis mapping for " + redisKey + " (compactor must set it)");
-        }
-        return s3Key;
-    }
-    
-    private String constructSegKeyFromUlid(String segUlid) {
-        return String.format("%s/seg/unknown/unknown/unknown/seg-%s.jsonl.zst", prefix, segUlid);
     }
 }
@@ -7,26 +7,48 @@ import lombok.experimental.FieldDefaults;
 import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 @Service
+@ConditionalOnProperty(name = "app.storage.backend", havingValue = "s3", matchIfMissing = true)
 @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @Slf4j
-public class S3Service {
+public class S3Service implements BlobStore {
     @Value("${app.s3.bucket}")
     @NonFinal
     String bucket;
@@ -45,10 +67,19 @@ public class S3Service {
     @Value("${app.s3.secretAccessKey:}")
     @NonFinal
     String secretAccessKey;
+    @Value("${app.s3.async.maxConcurrency:256}")
+    @NonFinal
+    int maxConcurrency;
+    @Value("${app.s3.async.maxPendingAcquires:10000}")
+    @NonFinal
+    int maxPendingAcquires;
+    @Value("${app.s3.async.warmupConnections:16}")
+    @NonFinal
+    int warmupConnections;
 
     @NonFinal
-    S3Client s3Client;
-    
+    S3AsyncClient s3Client;
+
     @NonFinal
     boolean kmsAvailable = false;
 
@@ -56,32 +87,42 @@ public class S3Service {
     public void initS3Client() {
         try {
             Region awsRegion = Region.of(region);
-            
+            S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                    .region(awsRegion)
+                    .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                            .maxConcurrency(maxConcurrency)
+                            .maxPendingConnectionAcquires(maxPendingAcquires)
+                            .connectionAcquisitionTimeout(Duration.ofSeconds(30)));
+
             // Configure credentials if provided
-            if (accessKeyId != null && !accessKeyId.trim().isEmpty() && 
+            if (accessKeyId != null && !accessKeyId.trim().isEmpty() &&
                 secretAccessKey != null && !secretAccessKey.trim().isEmpty()) {
                 AwsBasicCredentials credentials = AwsBasicCredentials.create(accessKeyId, secretAccessKey);
-                s3Client = S3Client.builder()
-                        .region(awsRegion)
-                        .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                        .build();
-                log.info("S3Client initialized with explicit credentials for region: {}", region);
+                builder.credentialsProvider(StaticCredentialsProvider.create(credentials));
+                log.info("S3AsyncClient initialized with explicit credentials for region: {}", region);
             } else {
-                s3Client = S3Client.builder()
-                        .region(awsRegion)
-                        .build();
-                log.info("S3Client initialized with default credential chain for region: {}", region);
+                log.info("S3AsyncClient initialized with default credential chain for region: {}", region);
             }
-            
+            s3Client = builder.build();
+
             // Check KMS availability if KMS key is configured
             checkKmsAvailability();
-            
+
+            warmUpConnections();
+
         } catch (Exception e) {
-            log.error("Failed to initialize S3Client for region: {}", region, e);
-            throw new RuntimeException("Failed to initialize S3Client", e);
+            log.error("Failed to initialize S3AsyncClient for region: {}", region, e);
+            throw new RuntimeException("Failed to initialize S3AsyncClient", e);
         }
     }
-    
+
+    @PreDestroy
+    public void closeS3Client() {
+        if (s3Client != null) {
+            s3Client.close();
+        }
+    }
+
     private void checkKmsAvailability() {
         if (kmsKey.isPresent() && !kmsKey.get().trim().isEmpty()) {
             // Bật lên nếu có
@@ -93,7 +134,55 @@ public class S3Service {
         }
     }
 
-    public void putBytes(String key, byte[] bytes, String contentType) {
+    // Mở sẵn một số kết nối (TLS handshake) bằng HeadBucket song song để request đầu tiên không phải trả giá đó
+    private void warmUpConnections() {
+        if (warmupConnections <= 0) {
+            return;
+        }
+        List<CompletableFuture<?>> probes = new ArrayList<>(warmupConnections);
+        for (int i = 0; i < warmupConnections; i++) {
+            probes.add(s3Client.headBucket(HeadBucketRequest.builder().bucket(bucket).build()));
+        }
+        try {
+            CompletableFuture.allOf(probes.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            log.info("Warmed up {} S3 connections for bucket {}", warmupConnections, bucket);
+        } catch (Exception e) {
+            log.warn("S3 connection warm-up failed for bucket {}: {}", bucket, e.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, byte[] bytes, String contentType) {
+        // caller không sửa mảng sau khi gọi -> không cần SDK copy thêm
+        return s3Client.putObject(putRequest(key, bytes, contentType).build(), AsyncRequestBody.fromBytesUnsafe(bytes))
+                .handle((resp, err) -> {
+                    if (err != null) {
+                        throw translate(err, "upload to", key);
+                    }
+                    log.debug("Successfully uploaded {} bytes to S3 key: {}", bytes.length, key);
+                    return null;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsentAsync(String key, byte[] bytes, String contentType) {
+        // If-None-Match: * -> S3 trả 412 nếu key đã có (409 nếu đang có lần ghi khác cùng key)
+        PutObjectRequest request = putRequest(key, bytes, contentType).ifNoneMatch("*").build();
+        return s3Client.putObject(request, AsyncRequestBody.fromBytesUnsafe(bytes))
+                .handle((resp, err) -> {
+                    if (err == null) {
+                        log.debug("Successfully uploaded {} bytes to new S3 key: {}", bytes.length, key);
+                        return true;
+                    }
+                    Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                    if (cause instanceof S3Exception s3 && (s3.statusCode() == 412 || s3.statusCode() == 409)) {
+                        return false;
+                    }
+                    throw translate(err, "upload to", key);
+                });
+    }
+
+    private PutObjectRequest.Builder putRequest(String key, byte[] bytes, String contentType) {
         if (key == null || key.trim().isEmpty()) {
             throw new IllegalArgumentException("S3 key cannot be null or empty");
         }
@@ -104,65 +193,49 @@ public class S3Service {
             throw new IllegalArgumentException("Content type cannot be null or empty");
         }
 
-        try {
-            PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .contentType(contentType)
-                    .contentLength((long) bytes.length);
-            
-            // Use KMS encryption if available, otherwise use AES256
-            if (kmsAvailable && kmsKey.isPresent()) {
-                requestBuilder
-                    .serverSideEncryption(ServerSideEncryption.AWS_KMS)
-                    .ssekmsKeyId(kmsKey.get());
-                log.debug("Using KMS encryption with key: {}", kmsKey.get());
-            } else {
-                requestBuilder.serverSideEncryption(ServerSideEncryption.AES256);
-                log.debug("Using AES256 encryption");
-            }
-            
-            s3Client.putObject(requestBuilder.build(), RequestBody.fromBytes(bytes));
-            log.debug("Successfully uploaded {} bytes to S3 key: {}", bytes.length, key);
-            
-        } catch (S3Exception e) {
-            log.error("S3 error uploading to key {}: {}", key, e.getMessage(), e);
-            throw new RuntimeException("Failed to upload to S3: " + e.getMessage(), e);
-        } catch (Exception e) {
-            log.error("Unexpected error uploading to S3 key {}: {}", key, e.getMessage(), e);
-            throw new RuntimeException("Failed to upload to S3", e);
+        PutObjectRequest.Builder requestBuilder = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType)
+                .contentLength((long) bytes.length);
+
+        // Use KMS encryption if available, otherwise use AES256
+        if (kmsAvailable && kmsKey.isPresent()) {
+            requestBuilder
+                .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                .ssekmsKeyId(kmsKey.get());
+            log.debug("Using KMS encryption with key: {}", kmsKey.get());
+        } else {
+            requestBuilder.serverSideEncryption(ServerSideEncryption.AES256);
+            log.debug("Using AES256 encryption");
         }
+        return requestBuilder;
     }
 
-    public byte[] getBytes(String key) {
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(String key) {
         if (key == null || key.trim().isEmpty()) {
             throw new IllegalArgumentException("S3 key cannot be null or empty");
         }
 
-        try {
-            GetObjectRequest request = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .build();
-            
-            var response = s3Client.getObject(request, ResponseTransformer.toBytes());
-            byte[] result = response.asByteArray();
-            log.debug("Successfully downloaded {} bytes from S3 key: {}", result.length, key);
-            return result;
-            
-        } catch (NoSuchKeyException e) {
-            log.warn("Object not found in S3: {}", key);
-            throw new RuntimeException("Object not found: " + key, e);
-        } catch (S3Exception e) {
-            log.error("S3 error downloading key {}: {}", key, e.getMessage(), e);
-            throw new RuntimeException("Failed to download from S3: " + e.getMessage(), e);
-        } catch (Exception e) {
-            log.error("Unexpected error downloading from S3 key {}: {}", key, e.getMessage(), e);
-            throw new RuntimeException("Failed to download from S3", e);
-        }
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build();
+
+        return s3Client.getObject(request, AsyncResponseTransformer.toBytes())
+                .handle((response, err) -> {
+                    if (err != null) {
+                        throw translate(err, "download", key);
+                    }
+                    ByteBuffer result = wrap(response);
+                    log.debug("Successfully downloaded {} bytes from S3 key: {}", result.remaining(), key);
+                    return result;
+                });
     }
 
-    public byte[] rangeGet(String key, long start, long endInclusive) {
+    @Override
+    public CompletableFuture<ByteBuffer> rangeGetAsync(String key, long start, long endInclusive) {
         if (key == null || key.trim().isEmpty()) {
             throw new IllegalArgumentException("S3 key cannot be null or empty");
         }
@@ -173,28 +246,149 @@ public class S3Service {
             throw new IllegalArgumentException("End position cannot be less than start position");
         }
 
-        try {
-            String range = S3Constants.Range.BYTE_FORMAT.formatted(start, endInclusive);
-            GetObjectRequest request = GetObjectRequest.builder()
-                    .bucket(bucket)
-                    .key(key)
-                    .range(range)
-                    .build();
-            
-            var response = s3Client.getObject(request, ResponseTransformer.toBytes());
-            byte[] result = response.asByteArray();
-            log.debug("Successfully downloaded range {} from S3 key: {} ({} bytes)", range, key, result.length);
-            return result;
-            
-        } catch (NoSuchKeyException e) {
-            log.warn("Object not found in S3 for range request: {}", key);
-            throw new RuntimeException("Object not found: " + key, e);
-        } catch (S3Exception e) {
-            log.error("S3 error downloading range [{}, {}] from key {}: {}", start, endInclusive, key, e.getMessage(), e);
-            throw new RuntimeException("Failed to download range from S3: " + e.getMessage(), e);
-        } catch (Exception e) {
-            log.error("Unexpected error downloading range from S3 key {}: {}", key, e.getMessage(), e);
-            throw new RuntimeException("Failed to download range from S3", e);
+        String range = S3Constants.Range.BYTE_FORMAT.formatted(start, endInclusive);
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range(range)
+                .build();
+
+        return s3Client.getObject(request, AsyncResponseTransformer.toBytes())
+                .handle((response, err) -> {
+                    if (err != null) {
+                        throw translate(err, "download range " + range + " from", key);
+                    }
+                    ByteBuffer result = wrap(response);
+                    log.debug("Successfully downloaded range {} from S3 key: {} ({} bytes)", range, key, result.remaining());
+                    return result;
+                });
+    }
+
+    /** GET n byte cuối của object (Range: bytes=-n), dùng đọc trailer/footer của segment. */
+    @Override
+    public CompletableFuture<ByteBuffer> suffixGetAsync(String key, long n) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("S3 key cannot be null or empty");
+        }
+        if (n <= 0) {
+            throw new IllegalArgumentException("Suffix length must be positive");
+        }
+
+        String range = S3Constants.Range.SUFFIX_FORMAT.formatted(n);
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range(range)
+                .build();
+
+        return s3Client.getObject(request, AsyncResponseTransformer.toBytes())
+                .handle((response, err) -> {
+                    if (err != null) {
+                        throw translate(err, "download range " + range + " from", key);
+                    }
+                    ByteBuffer result = wrap(response);
+                    log.debug("Successfully downloaded range {} from S3 key: {} ({} bytes)", range, key, result.remaining());
+                    return result;
+                });
+    }
+
+    @Override
+    public CompletableFuture<String> createMultipartUploadAsync(String key, String contentType) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("S3 key cannot be null or empty");
+        }
+        CreateMultipartUploadRequest.Builder requestBuilder = CreateMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType(contentType);
+        if (kmsAvailable && kmsKey.isPresent()) {
+            requestBuilder
+                .serverSideEncryption(ServerSideEncryption.AWS_KMS)
+                .ssekmsKeyId(kmsKey.get());
+        } else {
+            requestBuilder.serverSideEncryption(ServerSideEncryption.AES256);
+        }
+        return s3Client.createMultipartUpload(requestBuilder.build())
+                .handle((resp, err) -> {
+                    if (err != null) {
+                        throw translate(err, "start multipart upload to", key);
+                    }
+                    return resp.uploadId();
+                });
+    }
+
+    @Override
+    public CompletableFuture<Part> uploadPartAsync(String key, String uploadId, int partNumber, byte[] bytes) {
+        UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) bytes.length)
+                .build();
+        return s3Client.uploadPart(request, AsyncRequestBody.fromBytesUnsafe(bytes))
+                .handle((resp, err) -> {
+                    if (err != null) {
+                        throw translate(err, "upload part " + partNumber + " to", key);
+                    }
+                    log.debug("Uploaded part {} ({} bytes) of S3 key: {}", partNumber, bytes.length, key);
+                    return new Part(partNumber, resp.eTag());
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> completeMultipartUploadAsync(String key, String uploadId, List<Part> parts) {
+        List<CompletedPart> completed = parts.stream()
+                .map(p -> CompletedPart.builder().partNumber(p.partNumber()).eTag(p.eTag()).build())
+                .toList();
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                .build();
+        return s3Client.completeMultipartUpload(request)
+                .handle((resp, err) -> {
+                    if (err != null) {
+                        throw translate(err, "complete multipart upload to", key);
+                    }
+                    log.debug("Completed multipart upload of S3 key: {} ({} parts)", key, parts.size());
+                    return null;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> abortMultipartUploadAsync(String key, String uploadId) {
+        AbortMultipartUploadRequest request = AbortMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .build();
+        return s3Client.abortMultipartUpload(request)
+                .handle((resp, err) -> {
+                    if (err != null) {
+                        log.warn("Failed to abort multipart upload {} of S3 key {}: {}", uploadId, key, err.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    // ResponseBytes đã giữ sẵn mảng kết quả -> bọc lại, không copy như asByteArray()
+    private static ByteBuffer wrap(ResponseBytes<GetObjectResponse> response) {
+        return ByteBuffer.wrap(response.asByteArrayUnsafe());
+    }
+
+    private RuntimeException translate(Throwable err, String op, String key) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        if (cause instanceof NoSuchKeyException) {
+            log.warn("Object not found in S3: {}", key);
+            return new RuntimeException("Object not found: " + key, cause);
+        }
+        if (cause instanceof S3Exception) {
+            log.error("S3 error ({}) key {}: {}", op, key, cause.getMessage(), cause);
+            return new RuntimeException("Failed to " + op + " S3: " + cause.getMessage(), cause);
         }
+        log.error("Unexpected error ({}) S3 key {}: {}", op, key, cause.getMessage(), cause);
+        return new RuntimeException("Failed to " + op + " S3", cause);
     }
 }
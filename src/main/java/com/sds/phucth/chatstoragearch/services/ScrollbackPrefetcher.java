@@ -0,0 +1,225 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.sds.phucth.chatstoragearch.models.MessageRef;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Prefetch trang kế tiếp khi client đang cuộn ngược lịch sử (readWindow desc, cursor = seq nhỏ nhất trang trước).
+ * Sau minStreak trang liên tiếp, trang sau được load nền (refs + range S3) và đỗ trong cache ngắn hạn;
+ * request kế tiếp lấy ra luôn, không chờ SQL/S3. Giới hạn theo byte đang đỗ và số prefetch đang chạy trên node.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ScrollbackPrefetcher {
+    MeterRegistry meterRegistry;
+
+    Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+    AtomicLong parkedBytes = new AtomicLong();
+
+    @Value("${app.read.prefetch.enabled:true}")
+    @NonFinal
+    boolean enabled;
+
+    @Value("${app.read.prefetch.minStreak:2}")
+    @NonFinal
+    int minStreak;
+
+    @Value("${app.read.prefetch.maxBytes:67108864}")
+    @NonFinal
+    long maxBytes;
+
+    @Value("${app.read.prefetch.maxInFlight:16}")
+    @NonFinal
+    int maxInFlight;
+
+    @Value("${app.read.prefetch.ttlMillis:30000}")
+    @NonFinal
+    long ttlMillis;
+
+    @NonFinal
+    Cache<String, ScrollState> scrolls;
+
+    @NonFinal
+    Cache<String, Parked> parked;
+
+    @NonFinal
+    Semaphore inFlight;
+
+    @NonFinal
+    Counter issued;
+
+    @NonFinal
+    Counter hits;
+
+    @NonFinal
+    Counter skipped;
+
+    @NonFinal
+    Counter wasted;
+
+    @NonFinal
+    Counter wastedBytes;
+
+    @PostConstruct
+    void init() {
+        inFlight = new Semaphore(Math.max(1, maxInFlight));
+        scrolls = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(2))
+                .maximumSize(100_000)
+                .build();
+        parked = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMillis))
+                .scheduler(Scheduler.systemScheduler())
+                .removalListener((String key, Parked p, RemovalCause cause) -> {
+                    if (p != null) {
+                        p.removed(cause != RemovalCause.EXPLICIT);
+                    }
+                })
+                .build();
+        issued = prefetchCounter("issued");
+        hits = prefetchCounter("hit");
+        skipped = prefetchCounter("skipped");
+        wasted = prefetchCounter("wasted");
+        wastedBytes = Counter.builder("read.prefetch.wasted.bytes")
+                .description("Bytes prefetched but expired before any request used them")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        meterRegistry.gauge("read.prefetch.parked.bytes", parkedBytes);
+    }
+
+    /** Trang đã prefetch đúng (conversation, cursor, limit), hoặc null. */
+    public ReaderService.RawWindow take(String conversationId, long cursor, int limit) {
+        if (!enabled) {
+            return null;
+        }
+        Parked p = parked.asMap().remove(key(conversationId, cursor, limit));
+        if (p == null) {
+            return null;
+        }
+        hits.increment();
+        return p.window;
+    }
+
+    /**
+     * Ghi nhận 1 trang desc vừa đọc; đủ streak thì prefetch trang kế bằng loader(nextCursor).
+     */
+    public void onPageRead(String conversationId, long cursor, int limit, List<MessageRef> refs,
+                           LongFunction<ReaderService.RawWindow> loader) {
+        if (!enabled) {
+            return;
+        }
+        String scrollKey = conversationId + ":" + limit;
+        if (refs.size() < limit) {
+            // đã tới đầu conversation
+            scrolls.invalidate(scrollKey);
+            return;
+        }
+        long nextCursor = refs.get(refs.size() - 1).getSeq();
+        ScrollState state = scrolls.asMap().compute(scrollKey, (k, prev) ->
+                new ScrollState(nextCursor, prev != null && prev.nextCursor == cursor ? prev.streak + 1 : 1));
+        if (state.streak < minStreak) {
+            return;
+        }
+        String key = key(conversationId, nextCursor, limit);
+        if (parked.getIfPresent(key) != null) {
+            return;
+        }
+        if (parkedBytes.get() >= maxBytes || !inFlight.tryAcquire()) {
+            skipped.increment();
+            return;
+        }
+        issued.increment();
+        executor.execute(() -> {
+            try {
+                ReaderService.RawWindow window = loader.apply(nextCursor);
+                Parked p = new Parked(window);
+                parked.put(key, p);
+                CompletableFuture.allOf(window.records().values().toArray(new CompletableFuture[0]))
+                        .handle((v, e) -> {
+                            p.settle();
+                            return null;
+                        });
+            } catch (Exception e) {
+                log.warn("Prefetch of conversation {} before seq {} failed: {}", conversationId, nextCursor, e.getMessage());
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private Counter prefetchCounter(String result) {
+        return Counter.builder("read.prefetch")
+                .description("Scrollback page prefetches by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static String key(String conversationId, long cursor, int limit) {
+        return conversationId + ":" + cursor + ":" + limit;
+    }
+
+    private record ScrollState(long nextCursor, int streak) {
+    }
+
+    // byte chỉ biết khi mọi record đã về; trang có thể bị lấy/hết hạn trước hoặc sau thời điểm đó
+    private final class Parked {
+        final ReaderService.RawWindow window;
+        long bytes = -1;
+        boolean removed;
+        boolean expired;
+
+        Parked(ReaderService.RawWindow window) {
+            this.window = window;
+        }
+
+        synchronized void settle() {
+            bytes = window.records().values().stream()
+                    .filter(f -> !f.isCompletedExceptionally())
+                    .mapToLong(f -> f.join().length)
+                    .sum();
+            if (!removed) {
+                parkedBytes.addAndGet(bytes);
+            } else if (expired) {
+                wastedBytes.increment(bytes);
+            }
+        }
+
+        synchronized void removed(boolean expired) {
+            this.removed = true;
+            this.expired = expired;
+            if (expired) {
+                wasted.increment();
+            }
+            if (bytes >= 0) {
+                parkedBytes.addAndGet(-bytes);
+                if (expired) {
+                    wastedBytes.increment(bytes);
+                }
+            }
+        }
+    }
+}
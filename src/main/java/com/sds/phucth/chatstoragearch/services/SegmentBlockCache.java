@@ -0,0 +1,319 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.sds.phucth.chatstoragearch.utils.FetchLimiter;
+import com.sds.phucth.chatstoragearch.utils.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Cache block cho object bất biến (segment, pack) đặt trước rangeGet.
+ * Key = (dataKey, block căn theo alignmentBytes) để các slice gần nhau dùng chung block.
+ * Tier 1: off-heap (direct ByteBuffer), Caffeine W-TinyLFU giới hạn theo bytes.
+ * Tier 2: thư mục SSD local, block đọc lại bằng mmap.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SegmentBlockCache {
+    BlobStore blobStore;
+    MeterRegistry meterRegistry;
+
+    Executor diskWriter = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${app.cache.blocks.enabled:true}")
+    @NonFinal
+    boolean enabled;
+
+    @Value("${app.cache.blocks.alignmentBytes:65536}")
+    @NonFinal
+    int alignment;
+
+    @Value("${app.cache.blocks.memoryMaxBytes:268435456}")
+    @NonFinal
+    long memoryMaxBytes;
+
+    @Value("${app.cache.blocks.diskDir:}")
+    @NonFinal
+    String diskDir;
+
+    @Value("${app.cache.blocks.diskMaxBytes:10737418240}")
+    @NonFinal
+    long diskMaxBytes;
+
+    @NonFinal
+    Cache<BlockKey, ByteBuffer> memory;
+    @NonFinal
+    Cache<BlockKey, Long> disk;
+    @NonFinal
+    Path diskRoot;
+
+    @NonFinal
+    Counter memoryHits;
+    @NonFinal
+    Counter memoryMisses;
+    @NonFinal
+    Counter diskHits;
+    @NonFinal
+    Counter diskMisses;
+
+    @PostConstruct
+    public void init() {
+        if (alignment <= 0) {
+            throw new IllegalArgumentException("app.cache.blocks.alignmentBytes must be positive");
+        }
+        memoryHits = counter("memory", "hit");
+        memoryMisses = counter("memory", "miss");
+        diskHits = counter("disk", "hit");
+        diskMisses = counter("disk", "miss");
+        Counter memoryEvictions = counter("memory", "eviction");
+        Counter diskEvictions = counter("disk", "eviction");
+
+        memory = Caffeine.newBuilder()
+                .maximumWeight(memoryMaxBytes)
+                .weigher((BlockKey k, ByteBuffer v) -> v.capacity())
+                .removalListener((BlockKey k, ByteBuffer v, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        memoryEvictions.increment();
+                    }
+                })
+                .build();
+
+        if (diskDir != null && !diskDir.isBlank()) {
+            diskRoot = Path.of(diskDir);
+            resetDiskDir();
+            disk = Caffeine.newBuilder()
+                    .maximumWeight(diskMaxBytes)
+                    .weigher((BlockKey k, Long size) -> (int) Math.min(Integer.MAX_VALUE, size))
+                    .removalListener((BlockKey k, Long size, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            diskEvictions.increment();
+                        }
+                        // REPLACED: file đã được ghi đè bằng block mới cùng key -> xoá là mất block vừa ghi
+                        if (k != null && cause != RemovalCause.REPLACED) {
+                            deleteQuietly(blockPath(k));
+                        }
+                    })
+                    .build();
+            log.info("Segment block cache: alignment={} memory={}B disk={} ({}B)", alignment, memoryMaxBytes, diskRoot, diskMaxBytes);
+        } else {
+            log.info("Segment block cache: alignment={} memory={}B, disk tier disabled", alignment, memoryMaxBytes);
+        }
+    }
+
+    /**
+     * Đọc [start, endInclusive] của object bất biến; chỉ các block chưa có trong cache mới đi S3.
+     * Các block thiếu liên tiếp được gom thành 1 range-get.
+     */
+    public CompletableFuture<ByteBuffer> rangeGet(String dataKey, long start, long endInclusive, FetchLimiter limiter) {
+        // backend cục bộ đọc qua mmap/page cache -> cache block thêm 1 bản là thừa
+        if (!enabled || blobStore.local()) {
+            return limiter.submit(() -> blobStore.rangeGetAsync(dataKey, start, endInclusive));
+        }
+        long firstBlock = start / alignment;
+        long lastBlock = endInclusive / alignment;
+        int count = (int) (lastBlock - firstBlock + 1);
+
+        ByteBuffer[] blocks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = lookup(new BlockKey(dataKey, firstBlock + i));
+        }
+
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        int i = 0;
+        while (i < count) {
+            if (blocks[i] != null) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < count && blocks[i] == null) {
+                i++;
+            }
+            int runEnd = i - 1;
+            fetches.add(fetchRun(dataKey, firstBlock, runStart, runEnd, blocks, limiter));
+        }
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0]))
+                .thenApply(v -> assemble(blocks, firstBlock, start, endInclusive));
+    }
+
+    private CompletableFuture<Void> fetchRun(String dataKey, long firstBlock, int runStart, int runEnd,
+                                             ByteBuffer[] blocks, FetchLimiter limiter) {
+        long from = (firstBlock + runStart) * alignment;
+        long to = (firstBlock + runEnd + 1) * alignment - 1;
+        return limiter.submit(() -> blobStore.rangeGetAsync(dataKey, from, to))
+                .thenAccept(fetched -> {
+                    // block cuối của object có thể ngắn hơn alignment
+                    for (int j = runStart; j <= runEnd; j++) {
+                        int off = (j - runStart) * alignment;
+                        if (off >= fetched.remaining()) {
+                            break;
+                        }
+                        int len = Math.min(alignment, fetched.remaining() - off);
+                        ByteBuffer block = ByteBuffer.allocateDirect(len);
+                        block.put(fetched.slice(fetched.position() + off, len)).flip();
+                        BlockKey key = new BlockKey(dataKey, firstBlock + j);
+                        memory.put(key, block);
+                        storeOnDisk(key, block);
+                        blocks[j] = block;
+                    }
+                });
+    }
+
+    private ByteBuffer lookup(BlockKey key) {
+        ByteBuffer block = memory.getIfPresent(key);
+        if (block != null) {
+            memoryHits.increment();
+            return block;
+        }
+        memoryMisses.increment();
+        if (disk == null) {
+            return null;
+        }
+        if (disk.getIfPresent(key) != null) {
+            ByteBuffer mapped = mapFromDisk(key);
+            if (mapped != null) {
+                diskHits.increment();
+                memory.put(key, mapped);
+                return mapped;
+            }
+            disk.invalidate(key);
+        }
+        diskMisses.increment();
+        return null;
+    }
+
+    private ByteBuffer assemble(ByteBuffer[] blocks, long firstBlock, long start, long endInclusive) {
+        int length = (int) (endInclusive - start + 1);
+        int offInFirst = (int) (start - firstBlock * alignment);
+        if (blocks.length == 1) {
+            ByteBuffer only = blocks[0];
+            checkCovered(only, offInFirst + length);
+            return only.slice(offInFirst, length);
+        }
+        byte[] out = new byte[length];
+        int written = 0;
+        for (int i = 0; i < blocks.length && written < length; i++) {
+            ByteBuffer block = blocks[i];
+            int from = i == 0 ? offInFirst : 0;
+            int n = Math.min(length - written, block.capacity() - from);
+            checkCovered(block, from + n);
+            block.get(from, out, written, n);
+            written += n;
+        }
+        if (written < length) {
+            throw new IllegalStateException("Range [" + start + ", " + endInclusive + "] is beyond the end of the object");
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    private static void checkCovered(ByteBuffer block, int needed) {
+        if (block == null || block.capacity() < needed) {
+            throw new IllegalStateException("Cached block does not cover the requested range");
+        }
+    }
+
+    private void storeOnDisk(BlockKey key, ByteBuffer block) {
+        if (disk == null || disk.getIfPresent(key) != null) {
+            return;
+        }
+        ByteBuffer copy = block.duplicate();
+        diskWriter.execute(() -> {
+            Path target = blockPath(key);
+            Path tmp = null;
+            try {
+                Files.createDirectories(target.getParent());
+                // tmp riêng cho mỗi lần ghi: 2 miss đồng thời cùng block không ghi chồng lên nhau
+                tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    while (copy.hasRemaining()) {
+                        ch.write(copy);
+                    }
+                }
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                disk.put(key, (long) block.capacity());
+            } catch (IOException e) {
+                log.warn("Failed to write cached block {}#{} to disk: {}", key.dataKey(), key.block(), e.getMessage());
+                if (tmp != null) {
+                    deleteQuietly(tmp);
+                }
+            }
+        });
+    }
+
+    private ByteBuffer mapFromDisk(BlockKey key) {
+        try (FileChannel ch = FileChannel.open(blockPath(key), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException e) {
+            log.debug("Cached block {}#{} missing on disk: {}", key.dataKey(), key.block(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Path blockPath(BlockKey key) {
+        String h = Hashing.sha256Hex(key.dataKey().getBytes(StandardCharsets.UTF_8));
+        return diskRoot.resolve(h.substring(0, 2)).resolve(h + "-" + key.block() + ".blk");
+    }
+
+    // index tier disk chỉ nằm trong bộ nhớ -> block còn sót từ lần chạy trước không được tính dung lượng, xoá đi
+    private void resetDiskDir() {
+        try {
+            if (Files.exists(diskRoot)) {
+                try (Stream<Path> paths = Files.walk(diskRoot)) {
+                    paths.sorted(Comparator.reverseOrder())
+                            .filter(p -> !p.equals(diskRoot))
+                            .forEach(SegmentBlockCache::deleteQuietly);
+                }
+            }
+            Files.createDirectories(diskRoot);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot prepare block cache dir " + diskRoot, e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+
+    private Counter counter(String tier, String result) {
+        return Counter.builder("segment.block.cache")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record BlockKey(String dataKey, long block) {
+    }
+}
@@ -0,0 +1,93 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sds.phucth.chatstoragearch.consts.PrefixConstants;
+import com.sds.phucth.chatstoragearch.models.SegmentCatalog;
+import com.sds.phucth.chatstoragearch.repository.SegmentCatalogRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Catalog segment (bảng segments_catalog) + near-cache trong process.
+ * Segment bất biến -> entry cache không bao giờ cũ, steady state resolve không tốn round trip nào.
+ * Miss được gom lại resolve 1 query cho cả nhóm ULID; segment cũ (trước khi có catalog) fallback Redis segKey:.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SegmentCatalogService {
+    SegmentCatalogRepository segmentCatalogRepository;
+    StringRedisTemplate redisTemplate;
+    MeterRegistry meterRegistry;
+
+    @Value("${app.cache.segments.maxEntries:1000000}")
+    @NonFinal
+    long maxEntries;
+
+    @NonFinal
+    Cache<String, String> dataKeys;
+
+    @PostConstruct
+    void init() {
+        dataKeys = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, dataKeys, "segment.catalog");
+    }
+
+    /** Ghi catalog trong transaction của compaction; commit cùng lúc với việc đổi refId. */
+    public void register(SegmentCatalog segment) {
+        segmentCatalogRepository.save(segment);
+        dataKeys.put(segment.getId(), segment.getDataKey());
+    }
+
+    /** dataKey tìm lại được từ footer của chính object (segment không có trong catalog lẫn Redis). */
+    public void remember(String segUlid, String dataKey) {
+        dataKeys.put(segUlid, dataKey);
+    }
+
+    /** segUlid -> dataKey; ULID không tìm thấy ở đâu cả thì không có trong map trả về. */
+    public Map<String, String> resolveDataKeys(Collection<String> segUlids) {
+        return dataKeys.getAll(segUlids, this::loadAll);
+    }
+
+    private Map<String, String> loadAll(Set<? extends String> segUlids) {
+        Map<String, String> found = new HashMap<>(segUlids.size());
+        segmentCatalogRepository.findAllById(new ArrayList<>(segUlids))
+                .forEach(s -> found.put(s.getId(), s.getDataKey()));
+
+        List<String> legacy = segUlids.stream().filter(u -> !found.containsKey(u)).map(String::valueOf).toList();
+        if (!legacy.isEmpty()) {
+            List<String> values = redisTemplate.opsForValue().multiGet(
+                    legacy.stream().map(u -> PrefixConstants.Ref.SEG_KEY + u).toList());
+            for (int i = 0; i < legacy.size(); i++) {
+                String dataKey = values == null ? null : values.get(i);
+                if (dataKey != null && !dataKey.isBlank()) {
+                    found.put(legacy.get(i), dataKey);
+                } else {
+                    log.warn("Segment {} not found in catalog nor Redis", legacy.get(i));
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,100 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sds.phucth.chatstoragearch.consts.SegmentConstants;
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.utils.S3Objects;
+import com.sds.phucth.chatstoragearch.utils.SegmentFooter;
+import com.sds.phucth.chatstoragearch.utils.Ulids;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Mở segment chỉ bằng footer trong chính object: 1 suffix range-get (thường đủ cả footer),
+ * thêm 1 range-get nếu footer lớn hơn phần đuôi đã lấy. Footer bất biến nên cache theo dataKey (giới hạn theo byte).
+ * ReaderService dùng khi segment không có trong catalog: dataKey dựng lại từ conversation + ULID, footer xác nhận slice.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class SegmentFooterReader {
+    BlobStore blobStore;
+
+    @Value("${app.s3.prefix}")
+    @NonFinal
+    String prefix;
+
+    @Value("${app.read.footerTailBytes:65536}")
+    @NonFinal
+    int footerTailBytes;
+
+    // footer segment lớn cỡ vài trăm KB -> chặn theo tổng byte, không theo số entry
+    @Value("${app.read.footerCacheBytes:67108864}")
+    @NonFinal
+    long footerCacheBytes;
+
+    @NonFinal
+    Cache<String, SegmentFooter> footers;
+
+    @PostConstruct
+    void init() {
+        footers = Caffeine.newBuilder()
+                .maximumWeight(footerCacheBytes)
+                .weigher((String key, SegmentFooter footer) -> footer.sizeBytes())
+                .build();
+    }
+
+    /** dataKey compaction ghi cho segment: tenant mặc định, tháng lấy từ timestamp của segUlid. */
+    public String dataKeyFor(String conversationId, String segUlid) {
+        return S3Objects.segDataKey(prefix, SegmentConstants.DEFAULT_TENANT, Ulids.yearMonth(segUlid), conversationId, segUlid);
+    }
+
+    public CompletableFuture<SegmentFooter> footer(String dataKey) {
+        SegmentFooter cached = footers.getIfPresent(dataKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return blobStore.suffixGetAsync(dataKey, footerTailBytes)
+                .thenCompose(tail -> {
+                    SegmentFooter.Trailer trailer = SegmentFooter.readTrailer(tail);
+                    int needed = trailer.footerLength() + SegmentFooter.TRAILER_BYTES;
+                    if (needed <= tail.remaining()) {
+                        int start = tail.position() + tail.remaining() - needed;
+                        return CompletableFuture.completedFuture(copy(tail.slice(start, trailer.footerLength())));
+                    }
+                    return blobStore.rangeGetAsync(dataKey, trailer.footerOffset(),
+                            trailer.footerOffset() + trailer.footerLength() - 1);
+                })
+                .thenApply(bytes -> {
+                    SegmentFooter footer = SegmentFooter.parse(bytes);
+                    footers.put(dataKey, footer);
+                    return footer;
+                });
+    }
+
+    public CompletableFuture<Optional<IndexEntry>> lookup(String dataKey, long seq) {
+        return footer(dataKey).thenApply(f -> {
+            int i = f.indexOfSeq(seq);
+            return i >= 0 ? Optional.of(f.entryAt(i)) : Optional.empty();
+        });
+    }
+
+    // không giữ cả đuôi 64KB trong cache chỉ vì footer nhỏ
+    private static ByteBuffer copy(ByteBuffer footer) {
+        ByteBuffer out = ByteBuffer.allocate(footer.remaining());
+        out.put(footer).flip();
+        return out;
+    }
+}
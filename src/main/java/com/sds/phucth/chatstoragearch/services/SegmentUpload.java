@@ -0,0 +1,87 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ghi segment tuần tự và upload từng part ngay khi đầy (S3 multipart).
+ * Bộ nhớ bị chặn ở 1 part đang ghi + tối đa maxInFlightParts part đang upload.
+ * Segment nhỏ hơn 1 part thì chỉ 1 PUT thường như trước.
+ */
+@Slf4j
+public class SegmentUpload {
+    private final BlobStore blobStore;
+    private final String key;
+    private final String contentType;
+    private final int partBytes;
+    private final int maxInFlightParts;
+
+    private final List<BlobStore.Part> completed = new ArrayList<>();
+    private final Deque<CompletableFuture<BlobStore.Part>> inFlight = new ArrayDeque<>();
+    private ByteArrayOutputStream part;
+    private String uploadId;
+    private int nextPartNumber = 1;
+    private long position;
+
+    public SegmentUpload(BlobStore blobStore, String key, String contentType, int partBytes, int maxInFlightParts) {
+        this.blobStore = blobStore;
+        this.key = key;
+        this.contentType = contentType;
+        this.partBytes = partBytes;
+        this.maxInFlightParts = Math.max(1, maxInFlightParts);
+        this.part = new ByteArrayOutputStream(partBytes);
+    }
+
+    /** Số byte đã ghi vào segment (offset của lần ghi kế tiếp). */
+    public long position() {
+        return position;
+    }
+
+    public void write(byte[] bytes) {
+        part.writeBytes(bytes);
+        position += bytes.length;
+        if (part.size() >= partBytes) {
+            flushPart();
+        }
+    }
+
+    public void complete() {
+        if (uploadId == null) {
+            blobStore.putBytes(key, part.toByteArray(), contentType);
+            return;
+        }
+        if (part.size() > 0) {
+            flushPart();
+        }
+        while (!inFlight.isEmpty()) {
+            completed.add(BlobStore.join(inFlight.removeFirst()));
+        }
+        BlobStore.join(blobStore.completeMultipartUploadAsync(key, uploadId, completed));
+    }
+
+    public void abort() {
+        if (uploadId != null) {
+            inFlight.forEach(f -> f.cancel(true));
+            blobStore.abortMultipartUploadAsync(key, uploadId).join();
+        }
+    }
+
+    private void flushPart() {
+        if (uploadId == null) {
+            uploadId = BlobStore.join(blobStore.createMultipartUploadAsync(key, contentType));
+            log.debug("Started multipart upload {} for segment {}", uploadId, key);
+        }
+        // giữ số part đang upload trong giới hạn -> chờ part cũ nhất
+        while (inFlight.size() >= maxInFlightParts) {
+            completed.add(BlobStore.join(inFlight.removeFirst()));
+        }
+        inFlight.addLast(blobStore.uploadPartAsync(key, uploadId, nextPartNumber++, part.toByteArray()));
+        part = new ByteArrayOutputStream(partBytes);
+    }
+}
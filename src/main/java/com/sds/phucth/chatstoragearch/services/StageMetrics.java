@@ -0,0 +1,143 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timer/histogram theo từng chặng của write, read và compaction.
+ * Tag chỉ lấy từ enum (stage/kind) -> số time series cố định, không có conversationId/tenant/key trong tag.
+ * Read amplification = sum(read.bytes{kind=fetched}) / sum(read.bytes{kind=used}).
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class StageMetrics {
+    MeterRegistry meterRegistry;
+
+    Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    Map<Volume, DistributionSummary> volumes = new EnumMap<>(Volume.class);
+
+    @Value("${app.metrics.stageHistograms:true}")
+    @NonFinal
+    boolean histograms;
+
+    @PostConstruct
+    void init() {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, Timer.builder(stage.metric)
+                    .tag("stage", stage.tag)
+                    .publishPercentileHistogram(histograms)
+                    // nén 1 record cỡ vài chục µs, upload segment cỡ chục giây
+                    .minimumExpectedValue(Duration.ofNanos(50_000))
+                    .maximumExpectedValue(Duration.ofSeconds(60))
+                    .register(meterRegistry));
+        }
+        for (Volume volume : Volume.values()) {
+            volumes.put(volume, DistributionSummary.builder(volume.metric)
+                    .tag("kind", volume.tag)
+                    .baseUnit(volume.baseUnit)
+                    .publishPercentileHistogram(histograms)
+                    .register(meterRegistry));
+        }
+    }
+
+    public <T> T time(Stage stage, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void time(Stage stage, Runnable action) {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    /** Đo từ lúc gọi tới khi future hoàn tất (kể cả lỗi); trả lại chính future đó. */
+    public <T> CompletableFuture<T> timeAsync(Stage stage, CompletableFuture<T> future) {
+        long start = System.nanoTime();
+        future.whenComplete((v, e) -> record(stage, System.nanoTime() - start));
+        return future;
+    }
+
+    public void record(Stage stage, long nanos) {
+        timers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void record(Volume volume, long amount) {
+        volumes.get(volume).record(amount);
+    }
+
+    public enum Stage {
+        IDEMPOTENCY("write.stage", "idempotency"),
+        SEQ_ALLOC("write.stage", "seq_alloc"),
+        // canonical JSON và SHA-256 tính trong cùng 1 lượt ghi buffer -> 1 chặng
+        CANONICALIZE("write.stage", "canonicalize_hash"),
+        COMPRESS("write.stage", "compress"),
+        BLOB_PUT("write.stage", "blob_put"),
+        DB_SAVE("write.stage", "db_save"),
+        GROUP_COMMIT("write.stage", "group_commit"),
+        KAFKA_SEND("write.stage", "kafka_send"),
+
+        SQL_PAGE("read.stage", "sql_page"),
+        SEG_RESOLVE("read.stage", "seg_resolve"),
+        FETCH("read.stage", "fetch"),
+        DECODE("read.stage", "decode"),
+        PARSE("read.stage", "parse"),
+
+        L0_FETCH("compaction.stage", "l0_fetch"),
+        RECOMPRESS("compaction.stage", "recompress"),
+        UPLOAD("compaction.stage", "upload"),
+        REF_REWRITE("compaction.stage", "ref_rewrite");
+
+        final String metric;
+        final String tag;
+
+        Stage(String metric, String tag) {
+            this.metric = metric;
+            this.tag = tag;
+        }
+    }
+
+    public enum Volume {
+        // số GET (cas) / range-get (seg, pack) phát ra cho mỗi window đọc
+        READ_CAS_GETS("read.fetch.requests", "cas", "requests"),
+        READ_RANGE_GETS("read.fetch.requests", "range", "requests"),
+        // fetched = byte các range trả về (block cache hoặc blob store), used = byte frame thực sự cần
+        READ_FETCHED("read.bytes", "fetched", "bytes"),
+        READ_USED("read.bytes", "used", "bytes"),
+        COMPACTION_L0_READ("compaction.bytes", "l0_read", "bytes"),
+        COMPACTION_WRITTEN("compaction.bytes", "segment_written", "bytes");
+
+        final String metric;
+        final String tag;
+        final String baseUnit;
+
+        Volume(String metric, String tag, String baseUnit) {
+            this.metric = metric;
+            this.tag = tag;
+            this.baseUnit = baseUnit;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.sds.phucth.chatstoragearch.consts.DictionaryConstants;
+import com.sds.phucth.chatstoragearch.consts.S3Constants;
+import com.sds.phucth.chatstoragearch.utils.S3Objects;
+import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Dictionary zstd train theo tenant + tháng từ record mẫu, dùng cho frame per-record trong segment.
+ * Dictionary lưu S3 theo dictId (bất biến, không bao giờ ghi đè), Redis chỉ giữ con trỏ tenant/tháng -> dictId đang dùng.
+ * Reader lấy dictId từ header của frame nên không cần biết tenant/tháng.
+ */
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class ZstdDictionaryService {
+    // id < 32768 zstd dành cho dictionary đăng ký công khai
+    private static final long MIN_DICT_ID = 32768;
+    private static final long MAX_DICT_ID = Integer.MAX_VALUE;
+    private static final int MAX_ID_ATTEMPTS = 8;
+
+    BlobStore blobStore;
+    StringRedisTemplate redisTemplate;
+
+    Cache<Long, ZstdDictCompress> compressDicts = Caffeine.newBuilder().maximumSize(64).build();
+    Cache<Long, ZstdDictDecompress> decompressDicts = Caffeine.newBuilder().maximumSize(256).build();
+
+    @Value("${app.s3.prefix}")
+    @NonFinal
+    String prefix;
+
+    @Value("${app.compaction.dictionary.enabled:true}")
+    @NonFinal
+    boolean enabled;
+
+    @Value("${app.compaction.dictionary.minSamples:256}")
+    @NonFinal
+    int minSamples;
+
+    @Value("${app.compaction.dictionary.maxSamples:4096}")
+    @NonFinal
+    int maxSamples;
+
+    // tổng byte mẫu (đã giải nén) giữ trong bộ nhớ khi train; ~100x dictSizeBytes là đủ cho zstd
+    @Value("${app.compaction.dictionary.maxSampleBytes:16777216}")
+    @NonFinal
+    long maxSampleBytes;
+
+    @Value("${app.compaction.dictionary.dictSizeBytes:112640}")
+    @NonFinal
+    int dictSizeBytes;
+
+    @Value("${app.compaction.dictionary.level:9}")
+    @NonFinal
+    int level;
+
+    public int maxSamples() {
+        return maxSamples;
+    }
+
+    public long maxSampleBytes() {
+        return maxSampleBytes;
+    }
+
+    /**
+     * Dictionary đang dùng cho tenant/tháng; nếu chưa có thì train từ samples (khi đủ số lượng).
+     * candidates = số record samples có thể lấy; ít hơn minSamples thì không gọi samples (không fetch L0 thừa).
+     * Optional rỗng -> nén frame không dictionary như trước.
+     */
+    public Optional<SegmentDict> dictionaryFor(String tenant, String yyyyMM, int candidates, Supplier<List<byte[]>> samples) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String pointerKey = DictionaryConstants.KeyFormat.ACTIVE.formatted(tenant, yyyyMM);
+        String active = redisTemplate.opsForValue().get(pointerKey);
+        if (active != null) {
+            long dictId = Long.parseLong(active);
+            return Optional.of(new SegmentDict(dictId, compressDict(dictId)));
+        }
+
+        if (candidates < minSamples) {
+            return Optional.empty();
+        }
+        List<byte[]> sampled = samples.get();
+        if (sampled.size() < minSamples) {
+            return Optional.empty();
+        }
+        byte[] dict = train(sampled);
+        if (dict == null) {
+            return Optional.empty();
+        }
+        long dictId = store(dict);
+
+        // node khác có thể vừa train xong -> dùng dictionary của bên thắng
+        Boolean won = redisTemplate.opsForValue().setIfAbsent(pointerKey, Long.toString(dictId));
+        if (!Boolean.TRUE.equals(won)) {
+            long winner = Long.parseLong(redisTemplate.opsForValue().get(pointerKey));
+            return Optional.of(new SegmentDict(winner, compressDict(winner)));
+        }
+        log.info("Trained zstd dictionary {} for {}/{} from {} samples ({} bytes)", dictId, tenant, yyyyMM, sampled.size(), dict.length);
+        compressDicts.put(dictId, new ZstdDictCompress(dict, level));
+        decompressDicts.put(dictId, new ZstdDictDecompress(dict));
+        return Optional.of(new SegmentDict(dictId, compressDicts.getIfPresent(dictId)));
+    }
+
+    /** Giải nén frame bất kỳ (CAS, pack, segment), tự dùng dictionary ghi trong header frame nếu có. */
+    public byte[] decompress(byte[] zstdFrame) {
+        long dictId = ZstdCodec.dictId(zstdFrame);
+        if (dictId == 0) {
+            return ZstdCodec.decompress(zstdFrame);
+        }
+        return ZstdCodec.decompress(zstdFrame, decompressDict(dictId));
+    }
+
+    /** Như decompress(byte[]) nhưng đọc thẳng từ slice của block đã fetch, không copy frame. */
+    public byte[] decompress(ByteBuffer zstdFrame) {
+        long dictId = ZstdCodec.dictId(zstdFrame);
+        return ZstdCodec.decompress(zstdFrame, dictId == 0 ? null : decompressDict(dictId));
+    }
+
+    public ZstdDictDecompress decompressDict(long dictId) {
+        return decompressDicts.get(dictId, id -> new ZstdDictDecompress(load(id)));
+    }
+
+    private ZstdDictCompress compressDict(long dictId) {
+        return compressDicts.get(dictId, id -> new ZstdDictCompress(load(id), level));
+    }
+
+    private byte[] load(long dictId) {
+        return blobStore.getBytes(S3Objects.dictKey(prefix, dictId));
+    }
+
+    // dictId zstd tự sinh là hash nội dung (~2^31 giá trị) -> 2 dictionary có thể trùng id, và reader chỉ biết
+    // dictId trong header frame. Đặt id ngẫu nhiên vào header dictionary rồi chỉ ghi khi key chưa có.
+    private long store(byte[] dict) {
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+            long dictId = ThreadLocalRandom.current().nextLong(MIN_DICT_ID, MAX_DICT_ID + 1);
+            stampDictId(dict, dictId);
+            if (blobStore.putBytesIfAbsent(S3Objects.dictKey(prefix, dictId), dict, S3Constants.ContentType.OCTET_STREAM)) {
+                return dictId;
+            }
+            log.warn("Zstd dictionary id {} already taken, picking another", dictId);
+        }
+        throw new IllegalStateException("No free zstd dictionary id after " + MAX_ID_ATTEMPTS + " attempts");
+    }
+
+    // header dictionary: magic (4 byte) + dictId (4 byte little-endian); frame nén bằng dictionary mang id này
+    static void stampDictId(byte[] dict, long dictId) {
+        ByteBuffer.wrap(dict).order(ByteOrder.LITTLE_ENDIAN).putInt(4, (int) dictId);
+    }
+
+    private byte[] train(List<byte[]> samples) {
+        long total = samples.stream().mapToLong(s -> s.length).sum();
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, total), dictSizeBytes);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        try {
+            byte[] dict = trainer.trainSamples();
+            return Zstd.getDictIdFromDict(dict) == 0 ? null : dict;
+        } catch (Exception e) {
+            log.warn("Zstd dictionary training failed on {} samples: {}", samples.size(), e.getMessage());
+            return null;
+        }
+    }
+
+    public record SegmentDict(long dictId, ZstdDictCompress compress) {
+    }
+}
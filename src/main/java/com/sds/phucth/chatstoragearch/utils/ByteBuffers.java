@@ -0,0 +1,18 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import java.nio.ByteBuffer;
+
+public final class ByteBuffers {
+    /**
+     * Trả về byte[] của buffer; nếu buffer bọc nguyên một mảng heap thì dùng luôn mảng đó, không copy.
+     */
+    public static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] out = new byte[buffer.remaining()];
+        buffer.duplicate().get(out);
+        return out;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Chuẩn hoá JSON + SHA-256 trong 1 lượt ghi, rồi nén zstd thẳng từ cùng buffer.
+ * Buffer/digest lấy từ pool dùng chung (request chạy trên virtual thread nên ThreadLocal không tái sử dụng được).
+ * Nén 1 lần từ buffer (không stream) để frame vẫn ghi content size -> giải nén đúng kích thước.
+ */
+public final class CanonicalEncoder {
+    private static final int INITIAL_BYTES = 4096;
+    // buffer phình quá ngưỡng này (record rất lớn) thì bỏ, không giữ lại trong pool
+    private static final int MAX_POOLED_BYTES = 1 << 20;
+    private static final ArrayBlockingQueue<Scratch> POOL =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 4);
+
+    private CanonicalEncoder() {
+    }
+
+    public static Encoded encode(Object value, int zstdLevel) {
+        Scratch scratch = POOL.poll();
+        if (scratch == null) {
+            scratch = new Scratch();
+        }
+        try {
+            scratch.reset();
+            CanonicalJson.writeTo(value, scratch);
+            String hash = Hashing.toHex(scratch.digest.digest());
+            long compressStart = System.nanoTime();
+            int zstdLength = ZstdCodec.compress(scratch.zstdBuffer(), scratch.buf, 0, scratch.size, zstdLevel);
+            long compressNanos = System.nanoTime() - compressStart;
+            return new Encoded(
+                    Arrays.copyOf(scratch.buf, scratch.size),
+                    hash,
+                    Arrays.copyOf(scratch.zbuf, zstdLength),
+                    compressNanos);
+        } finally {
+            if (scratch.buf.length <= MAX_POOLED_BYTES) {
+                POOL.offer(scratch);
+            }
+        }
+    }
+
+    /** compressNanos: riêng phần nén, để tách chặng compress khỏi canonical + hash khi đo. */
+    public record Encoded(byte[] canonical, String sha256Hex, byte[] zstd, long compressNanos) {
+    }
+
+    // sink của JsonGenerator: ghi vào buffer tăng dần và cập nhật digest cùng lúc
+    private static final class Scratch extends OutputStream {
+        private final MessageDigest digest = Hashing.newSha256();
+        private byte[] buf = new byte[INITIAL_BYTES];
+        private byte[] zbuf = new byte[0];
+        private int size;
+
+        void reset() {
+            size = 0;
+            digest.reset();
+        }
+
+        byte[] zstdBuffer() {
+            int bound = ZstdCodec.maxCompressedLength(size);
+            if (zbuf.length < bound) {
+                zbuf = new byte[bound];
+            }
+            return zbuf;
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, size, len);
+            size += len;
+            digest.update(b, off, len);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+    }
+}
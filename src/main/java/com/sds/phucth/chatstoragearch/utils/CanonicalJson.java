@@ -1,45 +1,77 @@
 package com.sds.phucth.chatstoragearch.utils;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.*;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
-import java.util.TreeMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
+/**
+ * JSON chuẩn hoá: key sắp theo thứ tự chữ cái ở mọi cấp, bỏ field null của POJO.
+ * Ghi thẳng ra stream (property POJO và key Map được Jackson sắp sẵn khi serialize),
+ * không dựng JsonNode trung gian.
+ */
 public final class CanonicalJson {
-    private static final ObjectMapper M = new ObjectMapper()
-            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
-            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
-            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
-            .setPropertyNamingStrategy(PropertyNamingStrategies.LOWER_CAMEL_CASE)
-            .registerModule(new JavaTimeModule());
+    private static final ObjectMapper M = JsonMapper.builder()
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .propertyNamingStrategy(PropertyNamingStrategies.LOWER_CAMEL_CASE)
+            .addModule(new JavaTimeModule())
+            .addModule(new SimpleModule().addSerializer(JsonNode.class, new SortedJsonNodeSerializer()))
+            .build();
 
     public static byte[] toCanonicalBytes(Object value) {
         try {
-            JsonNode sorted = sort(M.valueToTree(value));
-            return M.writeValueAsBytes(sorted);
+            return M.writeValueAsBytes(value);
         } catch (Exception e) { throw new RuntimeException(e); }
     }
 
-    private static JsonNode sort(JsonNode node) {
-        if (node.isObject()) {
-            ObjectNode obj = (ObjectNode) node;
-            ObjectNode out = M.createObjectNode();
-            TreeMap<String, JsonNode> map = new TreeMap<>();
-            obj.fields().forEachRemaining(e -> map.put(e.getKey(), sort(e.getValue())));
-            map.forEach(out::set);
-            return out;
-        } else if (node.isArray()) {
-            ArrayNode arr = (ArrayNode) node;
-            ArrayNode out = M.createArrayNode();
-            for (JsonNode n: arr){
-                out.add(sort(n));
+    public static void writeTo(Object value, OutputStream out) {
+        try {
+            M.writeValue(out, value);
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    // body/meta dạng JsonNode không đi qua sắp xếp Map/POJO -> tự sắp field
+    private static final class SortedJsonNodeSerializer extends StdSerializer<JsonNode> {
+        private SortedJsonNodeSerializer() {
+            super(JsonNode.class);
+        }
+
+        @Override
+        public void serialize(JsonNode node, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (node.isObject()) {
+                List<String> names = new ArrayList<>(node.size());
+                for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
+                    names.add(it.next());
+                }
+                Collections.sort(names);
+                gen.writeStartObject();
+                for (String name : names) {
+                    gen.writeFieldName(name);
+                    serialize(node.get(name), gen, provider);
+                }
+                gen.writeEndObject();
+            } else if (node.isArray()) {
+                gen.writeStartArray();
+                for (JsonNode child : node) {
+                    serialize(child, gen, provider);
+                }
+                gen.writeEndArray();
+            } else {
+                ((JsonSerializable) node).serialize(gen, provider);
             }
-            return out;
-        } else {
-            return node;
         }
     }
 }
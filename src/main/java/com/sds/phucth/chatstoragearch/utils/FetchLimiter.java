@@ -0,0 +1,32 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Giới hạn số request S3 đang bay cho một lượt đọc/compaction.
+ * acquire có thể block -> gọi từ virtual thread, permit trả lại khi future hoàn thành.
+ */
+public final class FetchLimiter {
+    private final Semaphore permits;
+
+    public FetchLimiter(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> fetch) {
+        permits.acquireUninterruptibly();
+        CompletableFuture<T> future;
+        try {
+            future = fetch.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return future.whenComplete((r, e) -> permits.release());
+    }
+}
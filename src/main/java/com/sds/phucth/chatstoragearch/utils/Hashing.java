@@ -2,20 +2,41 @@ package com.sds.phucth.chatstoragearch.utils;
 
 import com.sds.phucth.chatstoragearch.consts.AlgorithmConstants;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public final class Hashing {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // clone prototype rẻ hơn tra provider qua MessageDigest.getInstance mỗi lần
+    private static final MessageDigest SHA_256 = sha256Prototype();
+
     public static String sha256Hex(byte[] data) {
+        return toHex(newSha256().digest(data));
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return (MessageDigest) SHA_256.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        byte[] out = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX[(bytes[i] >>> 4) & 0x0f];
+            out[2 * i + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(out, StandardCharsets.US_ASCII);
+    }
+
+    private static MessageDigest sha256Prototype() {
         try {
-            MessageDigest md = MessageDigest.getInstance(AlgorithmConstants.Hashing.SHA_256);
-            byte[] d = md.digest(data);
-            StringBuilder sb = new StringBuilder(d.length * 2);
-            for (byte b : d) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return MessageDigest.getInstance(AlgorithmConstants.Hashing.SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
@@ -15,4 +15,15 @@ public class S3Objects {
         return S3Constants.S3Objects.SEG_INDEX_KEY.formatted(prefix, tenant, yyyyMM, convId, segUlid, parquet ? "parquet":"json");
     }
 
+    // 2 ký tự cuối của ULID là phần random -> chia prefix đều như casKey
+    public static String packKey(String prefix, String packUlid) {
+        String shard = packUlid.substring(packUlid.length() - 2).toLowerCase();
+        return S3Constants.S3Objects.PACK_KEY.formatted(prefix, shard, packUlid);
+    }
+
+    // dictId cấp ngẫu nhiên khi train và chỉ ghi nếu key chưa có -> key tự mang version, không bị ghi đè
+    public static String dictKey(String prefix, long dictId) {
+        return S3Constants.S3Objects.DICT_KEY.formatted(prefix, dictId);
+    }
+
 }
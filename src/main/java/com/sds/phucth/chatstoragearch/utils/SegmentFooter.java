@@ -0,0 +1,179 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.dto.SegmentIndex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index nhị phân cố định độ rộng, nối vào cuối object segment.
+ *
+ * <pre>
+ * [frames ...][footer][trailer]
+ * footer : formatVersion:i32 dictId:i64 count:i32 flags:i8 entries[count]
+ * entry  : seq:i64 msgId:16B offset:i64 length:i32 recordOffset:i32 recordLength:i32 [createdAt:i64]
+ * trailer: footerOffset:i64 footerLength:i32 trailerVersion:i32 magic:i32
+ * </pre>
+ * Entry sắp theo seq -> tìm nhị phân trực tiếp trên buffer đã fetch, không parse ra object.
+ */
+public final class SegmentFooter {
+    public static final int MAGIC = 0x43534958; // "CSIX"
+    public static final int TRAILER_VERSION = 1;
+    public static final int TRAILER_BYTES = 8 + 4 + 4 + 4;
+
+    private static final int HEADER_BYTES = 4 + 8 + 4 + 1;
+    private static final int BASE_ENTRY_BYTES = 8 + Ulids.BYTES + 8 + 4 + 4 + 4;
+    private static final int FLAG_CREATED_AT = 1;
+
+    private final ByteBuffer buf;   // chỉ phần footer (không gồm trailer), position 0
+    private final int formatVersion;
+    private final long dictId;
+    private final int count;
+    private final boolean hasCreatedAt;
+    private final int entryBytes;
+
+    private SegmentFooter(ByteBuffer footer) {
+        this.buf = footer;
+        this.formatVersion = footer.getInt(0);
+        this.dictId = footer.getLong(4);
+        this.count = footer.getInt(12);
+        this.hasCreatedAt = (footer.get(16) & FLAG_CREATED_AT) != 0;
+        this.entryBytes = BASE_ENTRY_BYTES + (hasCreatedAt ? 8 : 0);
+        if (footer.remaining() < HEADER_BYTES + (long) count * entryBytes) {
+            throw new IllegalStateException("Segment footer truncated: " + footer.remaining() + " bytes for " + count + " entries");
+        }
+    }
+
+    /** Mã hoá footer + trailer; footerOffset = số byte frame đã ghi trước đó. */
+    public static byte[] encode(SegmentIndex index, long footerOffset) {
+        List<IndexEntry> entries = new ArrayList<>(index.getEntries());
+        entries.sort(Comparator.comparingLong(IndexEntry::getSeq));
+        boolean withCreatedAt = !entries.isEmpty() && entries.stream().allMatch(e -> e.getCreatedAt() != null);
+        int entryBytes = BASE_ENTRY_BYTES + (withCreatedAt ? 8 : 0);
+        int footerLength = HEADER_BYTES + entries.size() * entryBytes;
+
+        ByteBuffer out = ByteBuffer.allocate(footerLength + TRAILER_BYTES);
+        out.putInt(index.getFormatVersion());
+        out.putLong(index.getDictId());
+        out.putInt(entries.size());
+        out.put((byte) (withCreatedAt ? FLAG_CREATED_AT : 0));
+        for (IndexEntry e : entries) {
+            out.putLong(e.getSeq());
+            out.put(Ulids.toBytes(e.getMsgId()));
+            out.putLong(e.getOffset());
+            out.putInt(e.getLength());
+            out.putInt(e.getRecordOffset() == null ? -1 : e.getRecordOffset());
+            out.putInt(e.getRecordLength() == null ? 0 : e.getRecordLength());
+            if (withCreatedAt) {
+                out.putLong(e.getCreatedAt());
+            }
+        }
+        out.putLong(footerOffset);
+        out.putInt(footerLength);
+        out.putInt(TRAILER_VERSION);
+        out.putInt(MAGIC);
+        return out.array();
+    }
+
+    /** Đọc trailer từ đuôi object (tail = các byte cuối cùng, tối thiểu TRAILER_BYTES). */
+    public static Trailer readTrailer(ByteBuffer tail) {
+        if (tail.remaining() < TRAILER_BYTES) {
+            throw new IllegalStateException("Segment tail too short for trailer: " + tail.remaining());
+        }
+        int base = tail.position() + tail.remaining() - TRAILER_BYTES;
+        int magic = tail.getInt(base + 16);
+        if (magic != MAGIC) {
+            throw new IllegalStateException("Segment has no index footer (bad magic)");
+        }
+        int version = tail.getInt(base + 12);
+        if (version != TRAILER_VERSION) {
+            throw new IllegalStateException("Unsupported segment trailer version " + version);
+        }
+        return new Trailer(tail.getLong(base), tail.getInt(base + 8));
+    }
+
+    /** footer = đúng footerLength byte bắt đầu tại footerOffset. */
+    public static SegmentFooter parse(ByteBuffer footer) {
+        return new SegmentFooter(footer.slice());
+    }
+
+    public int formatVersion() {
+        return formatVersion;
+    }
+
+    public long dictId() {
+        return dictId;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Số byte footer giữ trong bộ nhớ (để cache tính weight). */
+    public int sizeBytes() {
+        return buf.capacity();
+    }
+
+    public long seqAt(int i) {
+        return buf.getLong(pos(i));
+    }
+
+    public String msgIdAt(int i) {
+        byte[] id = new byte[Ulids.BYTES];
+        buf.get(pos(i) + 8, id);
+        return Ulids.fromBytes(id);
+    }
+
+    /** Vị trí entry có seq đúng bằng seq, hoặc -(điểm chèn) - 1 như Arrays.binarySearch. */
+    public int indexOfSeq(long seq) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long v = seqAt(mid);
+            if (v < seq) {
+                lo = mid + 1;
+            } else if (v > seq) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    public IndexEntry entryAt(int i) {
+        int p = pos(i) + 8 + Ulids.BYTES;
+        int recordOffset = buf.getInt(p + 12);
+        return IndexEntry.builder()
+                .seq(seqAt(i))
+                .msgId(msgIdAt(i))
+                .offset(buf.getLong(p))
+                .length(buf.getInt(p + 8))
+                .recordOffset(recordOffset < 0 ? null : recordOffset)
+                .recordLength(recordOffset < 0 ? null : buf.getInt(p + 16))
+                .createdAt(hasCreatedAt ? buf.getLong(p + 20) : null)
+                .build();
+    }
+
+    public List<IndexEntry> entries() {
+        List<IndexEntry> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            out.add(entryAt(i));
+        }
+        return out;
+    }
+
+    private int pos(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Footer entry " + i + " out of " + count);
+        }
+        return HEADER_BYTES + i * entryBytes;
+    }
+
+    public record Trailer(long footerOffset, int footerLength) {
+    }
+}
@@ -0,0 +1,60 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.sds.phucth.chatstoragearch.dto.Slice;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gộp slice của 1 segment thành range-get và cắt frame của từng slice ra khỏi block đã fetch.
+ * Range là long[]{start, end} (end tính cả byte cuối), đúng định dạng header Range của S3.
+ */
+public final class SegmentRanges {
+    private SegmentRanges() {
+    }
+
+    /** Slice phải đã sắp theo start; slice liền kề hoặc chồng nhau gộp chung 1 range. */
+    public static List<long[]> mergeConsecutiveRanges(List<Slice> slices) {
+        List<long[]> merged = new ArrayList<>();
+        long curStart = -1, curEnd = -1;
+
+        for (Slice slice : slices) {
+            long sliceStart = slice.getStart();
+            long sliceEnd = slice.getStart() + slice.getLength() - 1;
+
+            if (curStart == -1) {
+                curStart = sliceStart;
+                curEnd = sliceEnd;
+            } else if (sliceStart <= curEnd + 1) {
+                curEnd = Math.max(curEnd, sliceEnd);
+            } else {
+                merged.add(new long[]{curStart, curEnd});
+                curStart = sliceStart;
+                curEnd = sliceEnd;
+            }
+        }
+
+        if (curStart != -1) {
+            merged.add(new long[]{curStart, curEnd});
+        }
+
+        return merged;
+    }
+
+    /** Range chứa trọn slice, hoặc null. */
+    public static long[] containing(Slice slice, List<long[]> ranges) {
+        for (long[] range : ranges) {
+            if (slice.getStart() >= range[0] && (slice.getStart() + slice.getLength() - 1) <= range[1]) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /** Frame của slice là view trên block đã fetch (block bắt đầu tại blockStart), không copy. */
+    public static ByteBuffer frame(ByteBuffer block, long blockStart, Slice slice) {
+        int offsetInBlock = (int) (slice.getStart() - blockStart);
+        return block.slice(block.position() + offsetInBlock, slice.getLength());
+    }
+}
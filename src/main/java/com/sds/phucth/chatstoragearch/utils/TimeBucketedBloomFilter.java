@@ -0,0 +1,109 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter chia theo cửa sổ thời gian: key sống ~ (buckets - 1) .. buckets * bucketMillis
+ * rồi tự rơi khỏi filter khi bucket cũ nhất bị xoá để tái sử dụng.
+ * Chỉ dùng làm bộ lọc âm: "không có" là chắc chắn (trong cửa sổ), "có" thì phải hỏi nguồn thật.
+ */
+public final class TimeBucketedBloomFilter {
+    private final AtomicLongArray[] buckets;
+    private final AtomicLongArray epochs;
+    private final long bucketMillis;
+    private final int bits;
+    private final int hashes;
+
+    public TimeBucketedBloomFilter(int bucketCount, long bucketMillis, int expectedPerBucket, double fpp) {
+        this.buckets = new AtomicLongArray[bucketCount];
+        this.epochs = new AtomicLongArray(bucketCount);
+        this.bucketMillis = bucketMillis;
+        // công thức chuẩn: m = -n ln p / (ln 2)^2, k = m/n ln 2
+        long m = (long) Math.ceil(-expectedPerBucket * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedPerBucket * Math.log(2)));
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicLongArray((bits + 63) >>> 6);
+            epochs.set(i, -1);
+        }
+    }
+
+    public void put(String key) {
+        AtomicLongArray bucket = current(System.currentTimeMillis());
+        long h = hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long prev;
+            do {
+                prev = bucket.get(word);
+            } while ((prev & mask) == 0 && !bucket.compareAndSet(word, prev, prev | mask));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long now = System.currentTimeMillis();
+        current(now);
+        long h = hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long epoch = now / bucketMillis;
+        for (int b = 0; b < buckets.length; b++) {
+            long bucketEpoch = epochs.get(b);
+            if (bucketEpoch < 0 || epoch - bucketEpoch >= buckets.length) {
+                continue;
+            }
+            if (contains(buckets[b], h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean contains(AtomicLongArray bucket, int h1, int h2) {
+        for (int i = 0; i < hashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((bucket.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // bucket của epoch hiện tại; sang epoch mới thì xoá bucket cũ nhất (cùng slot) trước khi dùng lại
+    private AtomicLongArray current(long now) {
+        long epoch = now / bucketMillis;
+        int slot = (int) (epoch % buckets.length);
+        if (epochs.get(slot) != epoch) {
+            synchronized (this) {
+                if (epochs.get(slot) != epoch) {
+                    AtomicLongArray bucket = buckets[slot];
+                    for (int i = 0; i < bucket.length(); i++) {
+                        bucket.set(i, 0);
+                    }
+                    epochs.set(slot, epoch);
+                }
+            }
+        }
+        return buckets[slot];
+    }
+
+    // FNV-1a 64 bit + bước trộn cuối của murmur3 để 2 nửa hash đủ độc lập
+    private static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,11 +1,29 @@
 package com.sds.phucth.chatstoragearch.utils;
 
+import com.github.f4b6a3.ulid.Ulid;
 import com.github.f4b6a3.ulid.UlidCreator;
 
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+
 public final class Ulids {
+    public static final int BYTES = 16;
+
     public static String newUlid() {
         return UlidCreator.getUlid().toString();
     }
 
+    public static byte[] toBytes(String ulid) {
+        return Ulid.from(ulid).toBytes();
+    }
+
+    public static String fromBytes(byte[] bytes) {
+        return Ulid.from(bytes).toString();
+    }
+
+    /** Tháng (UTC, yyyy-MM) của timestamp trong ULID. */
+    public static String yearMonth(String ulid) {
+        return YearMonth.from(Ulid.from(ulid).getInstant().atZone(ZoneOffset.UTC)).toString();
+    }
 
 }
@@ -1,24 +1,191 @@
 package com.sds.phucth.chatstoragearch.utils;
 
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
 
+/**
+ * Nén/giải nén zstd với context native dùng lại qua pool (virtual thread -> không dùng ThreadLocal).
+ * Frame có content size trong header được giải nén 1 lần vào mảng đúng kích thước;
+ * overload ByteBuffer đọc thẳng từ slice của block đã fetch (heap hoặc direct), không copy frame ra trước.
+ */
 public final class ZstdCodec {
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ArrayBlockingQueue<ZstdCompressCtx> COMPRESS_CTX = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<ZstdDecompressCtx> DECOMPRESS_CTX = new ArrayBlockingQueue<>(POOL_SIZE);
+
     public static byte[] compress(byte[] input, int level) {
-        return Zstd.compress(input, level);
+        ZstdCompressCtx ctx = compressCtx(level, null);
+        try {
+            return ctx.compress(input);
+        } finally {
+            release(ctx);
+        }
+    }
+
+    /** Nén src[off, off+len) vào dst (dst.length >= maxCompressedLength(len)); trả về số byte đã ghi. */
+    public static int compress(byte[] dst, byte[] src, int off, int len, int level) {
+        ZstdCompressCtx ctx = compressCtx(level, null);
+        try {
+            return ctx.compressByteArray(dst, 0, dst.length, src, off, len);
+        } finally {
+            release(ctx);
+        }
+    }
+
+    public static int maxCompressedLength(int len) {
+        return (int) Zstd.compressBound(len);
+    }
+
+    public static byte[] compress(byte[] input, ZstdDictCompress dict) {
+        ZstdCompressCtx ctx = compressCtx(0, dict);
+        try {
+            return ctx.compress(input);
+        } finally {
+            release(ctx);
+        }
     }
 
     public static byte[] decompress(byte[] zstdFrame) {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(zstdFrame);
-             com.github.luben.zstd.ZstdInputStream zin = new com.github.luben.zstd.ZstdInputStream(bais);
+        return decompress(zstdFrame, 0, zstdFrame.length, null);
+    }
+
+    public static byte[] decompress(byte[] zstdFrame, ZstdDictDecompress dict) {
+        return decompress(zstdFrame, 0, zstdFrame.length, dict);
+    }
+
+    public static byte[] decompress(ByteBuffer zstdFrame) {
+        return decompress(zstdFrame, null);
+    }
+
+    /** Giải nén phần còn lại (position..limit) của buffer; không đổi position. */
+    public static byte[] decompress(ByteBuffer zstdFrame, ZstdDictDecompress dict) {
+        int pos = zstdFrame.position();
+        int len = zstdFrame.remaining();
+        if (zstdFrame.hasArray()) {
+            return decompress(zstdFrame.array(), zstdFrame.arrayOffset() + pos, len, dict);
+        }
+        if (!zstdFrame.isDirect()) {
+            return decompress(ByteBuffers.toArray(zstdFrame.slice()), dict);
+        }
+        long size = Zstd.getDirectByteBufferFrameContentSize(zstdFrame, pos, len);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            return decompress(ByteBuffers.toArray(zstdFrame.slice()), dict);
+        }
+        byte[] out = new byte[(int) size];
+        ZstdDecompressCtx ctx = decompressCtx(dict);
+        try {
+            ctx.decompressDirectByteBufferToByteArray(out, 0, out.length, zstdFrame, pos, len);
+            return out;
+        } finally {
+            release(ctx);
+        }
+    }
+
+    public static byte[] decompress(byte[] src, int off, int len, ZstdDictDecompress dict) {
+        long size = Zstd.getFrameContentSize(src, off, len);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            // frame không ghi content size (ghi bằng stream) -> giải nén kiểu stream như trước
+            return decompressStream(src, off, len, dict);
+        }
+        byte[] out = new byte[(int) size];
+        ZstdDecompressCtx ctx = decompressCtx(dict);
+        try {
+            ctx.decompressByteArray(out, 0, out.length, src, off, len);
+            return out;
+        } finally {
+            release(ctx);
+        }
+    }
+
+    /** 0 nếu frame không dùng dictionary. */
+    public static long dictId(byte[] zstdFrame) {
+        return Zstd.getDictIdFromFrame(zstdFrame);
+    }
+
+    /** dictId đọc thẳng từ frame header tại position của buffer; 0 nếu không có. */
+    public static long dictId(ByteBuffer zstdFrame) {
+        int p = zstdFrame.position();
+        if (zstdFrame.remaining() < 6 || leInt(zstdFrame, p) != FRAME_MAGIC) {
+            return 0;
+        }
+        int descriptor = zstdFrame.get(p + 4) & 0xff;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        int q = p + 5 + (singleSegment ? 0 : 1); // bỏ qua window descriptor
+        return switch (descriptor & 0x03) {
+            case 1 -> zstdFrame.get(q) & 0xffL;
+            case 2 -> (zstdFrame.get(q) & 0xffL) | (zstdFrame.get(q + 1) & 0xffL) << 8;
+            case 3 -> leInt(zstdFrame, q) & 0xffffffffL;
+            default -> 0;
+        };
+    }
+
+    private static int leInt(ByteBuffer b, int i) {
+        return (b.get(i) & 0xff) | (b.get(i + 1) & 0xff) << 8 | (b.get(i + 2) & 0xff) << 16 | (b.get(i + 3) & 0xff) << 24;
+    }
+
+    private static byte[] decompressStream(byte[] src, int off, int len, ZstdDictDecompress dict) {
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(src, off, len);
+             ZstdInputStream zin = new ZstdInputStream(bais);
              ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            if (dict != null) {
+                zin.setDict(dict);
+            }
             zin.transferTo(baos);
             return baos.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    // reset() xoá cả tham số lẫn dictionary của lần dùng trước
+    private static ZstdCompressCtx compressCtx(int level, ZstdDictCompress dict) {
+        ZstdCompressCtx ctx = COMPRESS_CTX.poll();
+        if (ctx == null) {
+            ctx = new ZstdCompressCtx();
+        } else {
+            ctx.reset();
+        }
+        if (dict != null) {
+            ctx.loadDict(dict);
+        } else {
+            ctx.setLevel(level);
+        }
+        return ctx;
+    }
+
+    private static ZstdDecompressCtx decompressCtx(ZstdDictDecompress dict) {
+        ZstdDecompressCtx ctx = DECOMPRESS_CTX.poll();
+        if (ctx == null) {
+            ctx = new ZstdDecompressCtx();
+        } else {
+            ctx.reset();
+        }
+        if (dict != null) {
+            ctx.loadDict(dict);
+        }
+        return ctx;
+    }
+
+    private static void release(ZstdCompressCtx ctx) {
+        if (!COMPRESS_CTX.offer(ctx)) {
+            ctx.close();
+        }
+    }
+
+    private static void release(ZstdDecompressCtx ctx) {
+        if (!DECOMPRESS_CTX.offer(ctx)) {
+            ctx.close();
+        }
+    }
 }
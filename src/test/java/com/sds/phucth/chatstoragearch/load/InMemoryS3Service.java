@@ -0,0 +1,169 @@
+package com.sds.phucth.chatstoragearch.load;
+
+import com.sds.phucth.chatstoragearch.services.BlobStore;
+import com.sds.phucth.chatstoragearch.services.S3Service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * S3Service giữ object trong bộ nhớ, thay cho S3 thật trong load harness.
+ * Mỗi request chờ latencyMillis (+ jitter ngẫu nhiên) trước khi hoàn tất, giống round-trip tới S3;
+ * đếm số request và byte theo loại để tính chi phí S3 trên mỗi message.
+ */
+public class InMemoryS3Service extends S3Service {
+    public enum Op { PUT, GET, RANGE_GET, MULTIPART_CREATE, MULTIPART_PART, MULTIPART_COMPLETE }
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Map<Op, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Map<Op, LongAdder> bytes = new ConcurrentHashMap<>();
+    private final Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long latencyMillis;
+    private final long jitterMillis;
+
+    public InMemoryS3Service(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    // không tạo S3AsyncClient thật
+    @Override
+    public void initS3Client() {
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, byte[] data, String contentType) {
+        return respond(Op.PUT, data.length, () -> {
+            objects.put(key, data.clone());
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putIfAbsentAsync(String key, byte[] data, String contentType) {
+        return respond(Op.PUT, data.length, () -> objects.putIfAbsent(key, data.clone()) == null);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(String key) {
+        return respond(Op.GET, () -> ByteBuffer.wrap(object(key).clone()));
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> rangeGetAsync(String key, long start, long endInclusive) {
+        return respond(Op.RANGE_GET, () -> {
+            byte[] object = object(key);
+            int end = (int) Math.min(endInclusive + 1, object.length);
+            return ByteBuffer.wrap(Arrays.copyOfRange(object, (int) start, end));
+        });
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> suffixGetAsync(String key, long n) {
+        return respond(Op.RANGE_GET, () -> {
+            byte[] object = object(key);
+            return ByteBuffer.wrap(Arrays.copyOfRange(object, (int) Math.max(0, object.length - n), object.length));
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> createMultipartUploadAsync(String key, String contentType) {
+        return respond(Op.MULTIPART_CREATE, 0, () -> {
+            String uploadId = UUID.randomUUID().toString();
+            uploads.put(uploadId, new ConcurrentHashMap<>());
+            return uploadId;
+        });
+    }
+
+    @Override
+    public CompletableFuture<BlobStore.Part> uploadPartAsync(String key, String uploadId, int partNumber, byte[] data) {
+        return respond(Op.MULTIPART_PART, data.length, () -> {
+            uploads.get(uploadId).put(partNumber, data.clone());
+            return new BlobStore.Part(partNumber, Integer.toString(partNumber));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> completeMultipartUploadAsync(String key, String uploadId, List<BlobStore.Part> parts) {
+        return respond(Op.MULTIPART_COMPLETE, 0, () -> {
+            Map<Integer, byte[]> uploaded = new TreeMap<>(uploads.remove(uploadId));
+            int size = uploaded.values().stream().mapToInt(p -> p.length).sum();
+            ByteBuffer object = ByteBuffer.allocate(size);
+            uploaded.values().forEach(object::put);
+            objects.put(key, object.array());
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> abortMultipartUploadAsync(String key, String uploadId) {
+        uploads.remove(uploadId);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    public long requests(Op op) {
+        LongAdder n = requests.get(op);
+        return n == null ? 0 : n.sum();
+    }
+
+    public long bytes(Op op) {
+        LongAdder n = bytes.get(op);
+        return n == null ? 0 : n.sum();
+    }
+
+    /** Tổng byte object đang lưu có key bắt đầu bằng prefix. */
+    public long storedBytes(String keyPrefix) {
+        return objects.entrySet().stream()
+                .filter(e -> e.getKey().startsWith(keyPrefix))
+                .mapToLong(e -> e.getValue().length)
+                .sum();
+    }
+
+    private byte[] object(String key) {
+        byte[] object = objects.get(key);
+        if (object == null) {
+            throw new RuntimeException("Object not found: " + key);
+        }
+        return object;
+    }
+
+    // GET: byte đếm theo kết quả trả về
+    private CompletableFuture<ByteBuffer> respond(Op op, Supplier<ByteBuffer> action) {
+        return delayed(() -> {
+            ByteBuffer result = action.get();
+            count(op, result.remaining());
+            return result;
+        });
+    }
+
+    private <T> CompletableFuture<T> respond(Op op, long size, Supplier<T> action) {
+        return delayed(() -> {
+            T result = action.get();
+            count(op, size);
+            return result;
+        });
+    }
+
+    private <T> CompletableFuture<T> delayed(Supplier<T> action) {
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        return CompletableFuture.supplyAsync(action, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor));
+    }
+
+    private void count(Op op, long size) {
+        requests.computeIfAbsent(op, k -> new LongAdder()).increment();
+        bytes.computeIfAbsent(op, k -> new LongAdder()).add(size);
+    }
+}
@@ -0,0 +1,426 @@
+package com.sds.phucth.chatstoragearch.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sds.phucth.chatstoragearch.services.S3Service;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.convention.TestBean;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load harness end-to-end: MessageController -> L0WriterService -> compaction -> ReaderService trên service thật,
+ * với S3 trong bộ nhớ (có latency), redis-server nhúng, H2 (MSSQLServer mode) và Kafka nhúng.
+ * Không chạy mặc định; chạy bằng: mvn -Pload test [-Dload.*=...]. Kết quả in ra log và target/load-report.json.
+ *
+ * <pre>
+ * load.conversations=50 load.seedMessages=200 load.concurrency=32 load.durationSeconds=30
+ * load.mix=write:60,scrollback:30,tail:10 load.pageSize=50 load.toolOutputPercent=10
+ * load.s3LatencyMillis=20 load.s3JitterMillis=10 load.compactionWaitSeconds=120
+ * </pre>
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("load")
+@DirtiesContext
+@EmbeddedKafka(partitions = 4, topics = "msg.written", bootstrapServersProperty = "spring.kafka.bootstrap-servers")
+class LoadHarnessTests {
+    private static final Logger log = LoggerFactory.getLogger(LoadHarnessTests.class);
+
+    private static final int REDIS_PORT = freePort();
+    private static final RedisServer REDIS = startRedis(REDIS_PORT);
+
+    private static final int CONVERSATIONS = Integer.getInteger("load.conversations", 50);
+    private static final int SEED_MESSAGES = Integer.getInteger("load.seedMessages", 200);
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 32);
+    private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 30);
+    private static final int PAGE_SIZE = Integer.getInteger("load.pageSize", 50);
+    private static final int TOOL_OUTPUT_PERCENT = Integer.getInteger("load.toolOutputPercent", 10);
+    private static final int COMPACTION_WAIT_SECONDS = Integer.getInteger("load.compactionWaitSeconds", 120);
+    private static final String MIX = System.getProperty("load.mix", "write:60,scrollback:30,tail:10");
+
+    @TestBean(name = "s3Service")
+    S3Service s3Service;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @LocalServerPort
+    int port;
+
+    @Value("${app.s3.prefix}")
+    String prefix;
+
+    final HttpClient http = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    static S3Service s3Service() {
+        return new InMemoryS3Service(Long.getLong("load.s3LatencyMillis", 20), Long.getLong("load.s3JitterMillis", 10));
+    }
+
+    @DynamicPropertySource
+    static void redis(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> REDIS_PORT);
+    }
+
+    // dừng Redis khi context đóng (sau khi listener Kafka đã dừng), không phải ở @AfterAll
+    @TestConfiguration
+    static class EmbeddedRedisConfig {
+        @Bean(destroyMethod = "stop")
+        RedisServer embeddedRedis() {
+            return REDIS;
+        }
+    }
+
+    enum OpType { WRITE, SCROLLBACK, TAIL }
+
+    @Test
+    void mixedTraffic() throws Exception {
+        InMemoryS3Service s3 = (InMemoryS3Service) s3Service;
+        List<String> conversations = new ArrayList<>();
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            conversations.add("load-" + UUID.randomUUID());
+        }
+
+        // 1. seed lịch sử để scrollback có dữ liệu, rồi chờ compaction đưa lên segment
+        long seedStart = System.nanoTime();
+        Recorder seed = new Recorder();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String conversationId : conversations) {
+                pool.execute(() -> {
+                    for (int i = 0; i < SEED_MESSAGES; i++) {
+                        timed(seed, () -> write(conversationId));
+                    }
+                });
+            }
+        }
+        double seedSeconds = (System.nanoTime() - seedStart) / 1e9;
+        long compactionMillis = awaitCompaction();
+
+        // 2. traffic trộn trong durationSeconds
+        Map<OpType, Integer> weights = parseMix(MIX);
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        Map<OpType, Recorder> recorders = new EnumMap<>(OpType.class);
+        for (OpType type : OpType.values()) {
+            recorders.put(type, new Recorder());
+        }
+        long s3ReadsBefore = s3.bytes(InMemoryS3Service.Op.GET) + s3.bytes(InMemoryS3Service.Op.RANGE_GET);
+        long rangeGetsBefore = s3.requests(InMemoryS3Service.Op.RANGE_GET);
+        long deadline = System.nanoTime() + Duration.ofSeconds(DURATION_SECONDS).toNanos();
+        long mixStart = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CONCURRENCY; c++) {
+                pool.execute(() -> {
+                    Random rnd = ThreadLocalRandom.current();
+                    // mỗi client cuộn ngược 1 conversation theo cursor như app thật, hết trang thì đổi conversation
+                    String scrollConv = null;
+                    long scrollCursor = Long.MAX_VALUE;
+                    while (System.nanoTime() < deadline) {
+                        OpType type = pick(weights, totalWeight, rnd);
+                        String conversationId = conversations.get(rnd.nextInt(conversations.size()));
+                        Recorder recorder = recorders.get(type);
+                        switch (type) {
+                            case WRITE -> timed(recorder, () -> write(conversationId));
+                            case TAIL -> timed(recorder, () -> readPage(conversationId, Long.MAX_VALUE));
+                            case SCROLLBACK -> {
+                                if (scrollConv == null) {
+                                    scrollConv = conversationId;
+                                    scrollCursor = Long.MAX_VALUE;
+                                }
+                                String conv = scrollConv;
+                                long cursor = scrollCursor;
+                                long next = timed(recorder, () -> readPage(conv, cursor));
+                                if (next <= 1) {
+                                    scrollConv = null;
+                                } else {
+                                    scrollCursor = next;
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        double mixSeconds = (System.nanoTime() - mixStart) / 1e9;
+
+        // 3. báo cáo
+        long messages = (long) CONVERSATIONS * SEED_MESSAGES + recorders.get(OpType.WRITE).count();
+        long reads = recorders.get(OpType.SCROLLBACK).count() + recorders.get(OpType.TAIL).count();
+        long s3ReadBytes = s3.bytes(InMemoryS3Service.Op.GET) + s3.bytes(InMemoryS3Service.Op.RANGE_GET) - s3ReadsBefore;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", Map.of(
+                "conversations", CONVERSATIONS, "seedMessages", SEED_MESSAGES, "concurrency", CONCURRENCY,
+                "durationSeconds", DURATION_SECONDS, "mix", MIX, "pageSize", PAGE_SIZE,
+                "toolOutputPercent", TOOL_OUTPUT_PERCENT,
+                "s3LatencyMillis", Long.getLong("load.s3LatencyMillis", 20),
+                "s3JitterMillis", Long.getLong("load.s3JitterMillis", 10)));
+        report.put("seed", Map.of("messages", seed.count(), "seconds", round(seedSeconds),
+                "throughputPerSec", round(seed.count() / seedSeconds), "compactionMillis", compactionMillis));
+        Map<String, Object> ops = new LinkedHashMap<>();
+        recorders.forEach((type, recorder) -> ops.put(type.name().toLowerCase(), recorder.summary(mixSeconds)));
+        report.put("ops", ops);
+        Map<String, Object> s3Stats = new LinkedHashMap<>();
+        for (InMemoryS3Service.Op op : InMemoryS3Service.Op.values()) {
+            s3Stats.put(op.name().toLowerCase(), Map.of("requests", s3.requests(op), "bytes", s3.bytes(op)));
+        }
+        report.put("s3", s3Stats);
+        report.put("bytesPerMessage", Map.of(
+                "l0Stored", round((double) s3.storedBytes(prefix + "/cas/") / messages),
+                "segmentStored", round((double) s3.storedBytes(prefix + "/seg/") / messages),
+                "putPerMessage", round((double) (s3.bytes(InMemoryS3Service.Op.PUT) + s3.bytes(InMemoryS3Service.Op.MULTIPART_PART)) / messages),
+                "readPerPage", reads == 0 ? 0 : round((double) s3ReadBytes / reads)));
+
+        String json = objectMapper.copy().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(report);
+        Files.writeString(Path.of("target", "load-report.json"), json);
+        log.info("Load report:\n{}", json);
+
+        recorders.forEach((type, recorder) -> assertThat(recorder.errors.sum()).as(type + " errors").isZero());
+        assertThat(seed.errors.sum()).as("seed errors").isZero();
+        // đọc sau compaction phải đi qua segment, không chỉ phục vụ từ cache trong process
+        assertThat(s3.requests(InMemoryS3Service.Op.RANGE_GET) - rangeGetsBefore).as("segment range-gets during mix").isPositive();
+    }
+
+    private long write(String conversationId) {
+        Random rnd = ThreadLocalRandom.current();
+        Object body = rnd.nextInt(100) < TOOL_OUTPUT_PERCENT ? toolOutput(rnd) : sentence(rnd, 5 + rnd.nextInt(40));
+        Map<String, Object> request = Map.of(
+                "role", rnd.nextBoolean() ? "user" : "assistant",
+                "body", body,
+                "meta", Map.of("client", "load", "locale", "vi-VN"),
+                "clientMsgId", UUID.randomUUID().toString());
+        JsonNode response = send(HttpRequest.newBuilder(uri(conversationId, "")).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(request))).build(), 201);
+        return response.path("seq").asLong();
+    }
+
+    // trả về seq nhỏ nhất của trang (cursor cho trang kế khi cuộn ngược)
+    private long readPage(String conversationId, long cursor) {
+        JsonNode page = send(HttpRequest.newBuilder(uri(conversationId, "?order=desc&limit=" + PAGE_SIZE + "&cursor=" + cursor))
+                .GET().build(), 200);
+        long min = 0;
+        for (JsonNode record : page) {
+            if (record.has("error")) {
+                throw new IllegalStateException("Read failed: " + record);
+            }
+            min = record.path("seq").asLong();
+        }
+        return page.size() < PAGE_SIZE ? 0 : min;
+    }
+
+    private long awaitCompaction() throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + Duration.ofSeconds(COMPACTION_WAIT_SECONDS).toNanos();
+        while (System.nanoTime() < deadline) {
+            Long pending = jdbcTemplate.queryForObject(
+                    "select count(*) from messages_ref where ref_id like 'cas:%' or ref_id like 'pack:%'", Long.class);
+            if (pending != null && pending == 0) {
+                return (System.nanoTime() - start) / 1_000_000;
+            }
+            Thread.sleep(250);
+        }
+        log.warn("Compaction did not drain L0 within {}s; scrollback will partly read L0", COMPACTION_WAIT_SECONDS);
+        return -1;
+    }
+
+    private JsonNode send(HttpRequest request, int expectedStatus) {
+        try {
+            HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != expectedStatus) {
+                throw new IllegalStateException(request.method() + " " + request.uri() + " -> " + response.statusCode());
+            }
+            return objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private URI uri(String conversationId, String query) {
+        return URI.create("http://localhost:" + port + "/conversations/" + conversationId + "/messages" + query);
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long timed(Recorder recorder, LongOp op) {
+        long start = System.nanoTime();
+        try {
+            long result = op.run();
+            recorder.record(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            recorder.errors.increment();
+            log.debug("Load op failed: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    private interface LongOp {
+        long run();
+    }
+
+    private static OpType pick(Map<OpType, Integer> weights, int total, Random rnd) {
+        int r = rnd.nextInt(total);
+        for (Map.Entry<OpType, Integer> e : weights.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) {
+                return e.getKey();
+            }
+        }
+        return OpType.WRITE;
+    }
+
+    private static Map<OpType, Integer> parseMix(String mix) {
+        Map<OpType, Integer> weights = new EnumMap<>(OpType.class);
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            weights.put(OpType.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("load.mix has no positive weight: " + mix);
+        }
+        return weights;
+    }
+
+    private static final String[] WORDS = {
+            "message", "storage", "segment", "compaction", "reader", "window", "cursor", "tenant",
+            "xin", "chào", "bạn", "hôm", "nay", "thế", "nào", "ok", "🙂", "deploy", "error", "retry"
+    };
+
+    private static String sentence(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append(i == 0 ? "" : " ").append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // kết quả tool ~16KB: danh sách row có cột lặp lại
+    private static Map<String, Object> toolOutput(Random rnd) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            rows.add(Map.of(
+                    "id", rnd.nextInt(1_000_000),
+                    "path", "/srv/app/" + WORDS[rnd.nextInt(WORDS.length)] + "/" + rnd.nextInt(1000) + ".log",
+                    "status", rnd.nextBoolean() ? "ok" : "failed",
+                    "line", sentence(rnd, 10)));
+        }
+        return Map.of("tool", "search_logs", "exitCode", 0, "rows", rows);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static RedisServer startRedis(int port) {
+        try {
+            RedisServer server = new RedisServer(port);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Latency (nano) của 1 loại request; percentile tính khi báo cáo. */
+    static final class Recorder {
+        final LongAdder errors = new LongAdder();
+        long[] samples = new long[1024];
+        int size;
+
+        synchronized void record(long nanos) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = nanos;
+        }
+
+        synchronized long count() {
+            return size;
+        }
+
+        synchronized Map<String, Object> summary(double seconds) {
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("count", size);
+            out.put("errors", errors.sum());
+            out.put("throughputPerSec", round(size / seconds));
+            out.put("p50Ms", round(percentile(sorted, 0.50) / 1e6));
+            out.put("p99Ms", round(percentile(sorted, 0.99) / 1e6));
+            out.put("maxMs", round((size == 0 ? 0 : sorted[size - 1]) / 1e6));
+            return out;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.models.CompactionFence;
+import com.sds.phucth.chatstoragearch.repository.CompactionFenceRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CompactionLeaseServiceTests {
+    private static RedisServer redis;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate template;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void lostTokenCounterIsReseededFromTheSqlFence() {
+        CompactionFenceRepository fences = mock(CompactionFenceRepository.class);
+        when(fences.findById("c1")).thenReturn(Optional.of(new CompactionFence("c1", 41)));
+        CompactionLeaseService leases = service(fences);
+
+        // Redis mất counter (flush/failover) trong khi SQL đã ghi tới token 41
+        CompactionLeaseService.Lease lease = leases.tryAcquire("c1").orElseThrow();
+        assertThat(lease.fencingToken()).isEqualTo(42);
+        assertThat(leases.tryAcquire("c1")).isEmpty();
+
+        leases.release(lease);
+        assertThat(leases.tryAcquire("c1").orElseThrow().fencingToken()).isEqualTo(43);
+        // counter có TTL -> không để lại key vĩnh viễn cho mỗi conversation
+        assertThat(template.getExpire("compaction:fence:c1")).isPositive();
+    }
+
+    private static CompactionLeaseService service(CompactionFenceRepository fences) {
+        NodeIdentity identity = new NodeIdentity();
+        ReflectionTestUtils.setField(identity, "id", "node-a");
+        CompactionLeaseService service = new CompactionLeaseService(template, identity, fences);
+        ReflectionTestUtils.setField(service, "ttlMillis", 300000L);
+        ReflectionTestUtils.setField(service, "heartbeatTtlMillis", 60000L);
+        return service;
+    }
+}
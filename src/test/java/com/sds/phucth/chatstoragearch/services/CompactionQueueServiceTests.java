@@ -0,0 +1,71 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sds.phucth.chatstoragearch.utils.CanonicalJson;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactionQueueServiceTests {
+    private static RedisServer redis;
+    private static LettuceConnectionFactory connectionFactory;
+    private static CompactionQueueService queue;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        queue = new CompactionQueueService(template, new ObjectMapper());
+        ReflectionTestUtils.setField(queue, "countThreshold", 500L);
+        ReflectionTestUtils.setField(queue, "bytesThreshold", 4_194_304L);
+        ReflectionTestUtils.setField(queue, "maxAgeMinutes", 240L);
+        ReflectionTestUtils.setField(queue, "minAgeMinutes", 30L);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void backlogTotalsFollowTrackAndSettle() {
+        queue.onWritten(List.of(event("c1", 100, 1), event("c1", 200, 2), event("c2", 50, 3)), () -> { });
+        assertThat(queue.backlog()).isEqualTo(new CompactionQueueService.Backlog(3, 350));
+        assertThat(queue.queued()).isEqualTo(2);
+
+        // compact 1 record của c1 -> còn 1 record / 200 byte
+        queue.settle("c1", 1, 100, 0);
+        assertThat(queue.backlog()).isEqualTo(new CompactionQueueService.Backlog(2, 250));
+
+        // settle đếm dư (event lặp) -> chỉ trừ phần c2 thực sự còn giữ
+        queue.settle("c2", 5, 999, 0);
+        assertThat(queue.backlog()).isEqualTo(new CompactionQueueService.Backlog(1, 200));
+        assertThat(queue.queued()).isEqualTo(1);
+    }
+
+    private static ConsumerRecord<String, byte[]> event(String conversationId, long bytes, long offset) {
+        return new ConsumerRecord<>("msg.written", 0, offset, conversationId,
+                CanonicalJson.toCanonicalBytes(Map.of("conversationId", conversationId, "bytes", bytes)));
+    }
+}
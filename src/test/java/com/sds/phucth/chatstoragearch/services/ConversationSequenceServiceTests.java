@@ -0,0 +1,94 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConversationSequenceServiceTests {
+    private static RedisServer redis;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate template;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        template = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @Test
+    void concurrentCallersShareRangesWithoutDuplicates() throws Exception {
+        ConversationSequenceService service = service("node-a");
+        Set<Long> seqs = ConcurrentHashMap.newKeySet();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> futures = IntStream.range(0, 500)
+                    .mapToObj(i -> executor.submit(() -> seqs.add(service.nextSeq("c-shared"))))
+                    .toList();
+            for (var future : futures) {
+                future.get();
+            }
+        }
+
+        assertThat(seqs).hasSize(500).allMatch(seq -> seq >= 1 && seq <= 500);
+    }
+
+    @Test
+    void nonOwnerFailsFastInsteadOfWaitingForTheLease() {
+        service("node-a").nextSeq("c-owned");
+        ConversationSequenceService other = service("node-b");
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> other.nextSeq("c-owned"))
+                .isInstanceOfSatisfying(ConversationSequenceService.LeaseHeldElsewhereException.class,
+                        e -> assertThat(e.retryAfterMillis()).isBetween(1L, 10000L));
+        // TTL lease 10s -> không được chờ tới hết lease
+        assertThat(System.nanoTime() - start).isLessThan(2_000_000_000L);
+    }
+
+    private static ConversationSequenceService service(String node) {
+        NodeIdentity identity = new NodeIdentity();
+        ReflectionTestUtils.setField(identity, "id", node);
+        ConversationSequenceService service = new ConversationSequenceService(template, identity);
+        ReflectionTestUtils.setField(service, "leasedRanges", true);
+        ReflectionTestUtils.setField(service, "rangeSize", 100);
+        ReflectionTestUtils.setField(service, "leaseTtlMillis", 10000L);
+        service.init();
+        return service;
+    }
+
+    @Test
+    void nonPositiveRangeSizeIsRejected() {
+        ConversationSequenceService service = service("node-a");
+        ReflectionTestUtils.setField(service, "rangeSize", 0);
+        assertThatThrownBy(service::init).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,90 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.utils.ByteBuffers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileSystemBlobStoreTests {
+    private static final String KEY = "v1/seg/default/2025-01/c1/seg-X.jsonl.zst";
+
+    @TempDir
+    Path root;
+
+    private final byte[] object = new byte[1000];
+    private FileSystemBlobStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (int i = 0; i < object.length; i++) {
+            object[i] = (byte) i;
+        }
+        store = new FileSystemBlobStore();
+        ReflectionTestUtils.setField(store, "rootDir", root.toString());
+        ReflectionTestUtils.setField(store, "fsync", false);
+        ReflectionTestUtils.setField(store, "mappedFiles", 16);
+        store.init();
+    }
+
+    @Test
+    void putThenReadRangesLikeS3() {
+        store.putBytes(KEY, object, "application/octet-stream");
+
+        assertThat(store.getBytes(KEY)).isEqualTo(object);
+        assertThat(store.rangeGet(KEY, 100, 299)).isEqualTo(Arrays.copyOfRange(object, 100, 300));
+        // end vượt quá object bị cắt như S3
+        assertThat(store.rangeGet(KEY, 900, 5000)).isEqualTo(Arrays.copyOfRange(object, 900, 1000));
+        assertThat(ByteBuffers.toArray(store.suffixGetAsync(KEY, 20).join())).isEqualTo(Arrays.copyOfRange(object, 980, 1000));
+    }
+
+    @Test
+    void multipartUploadAppearsOnlyAfterComplete() throws Exception {
+        String uploadId = store.createMultipartUploadAsync(KEY, "application/octet-stream").join();
+        BlobStore.Part second = store.uploadPartAsync(KEY, uploadId, 2, Arrays.copyOfRange(object, 600, 1000)).join();
+        BlobStore.Part first = store.uploadPartAsync(KEY, uploadId, 1, Arrays.copyOfRange(object, 0, 600)).join();
+        assertThat(Files.exists(store.path(KEY))).isFalse();
+
+        store.completeMultipartUploadAsync(KEY, uploadId, List.of(second, first)).join();
+
+        assertThat(store.getBytes(KEY)).isEqualTo(object);
+        try (var uploads = Files.list(root.resolve(".uploads"))) {
+            assertThat(uploads).isEmpty();
+        }
+    }
+
+    @Test
+    void leftoversFromACrashAreSweptOnStartup() throws Exception {
+        ReflectionTestUtils.setField(store, "fsync", true);
+        store.putBytes(KEY, object, "application/octet-stream");
+        Path target = store.path(KEY);
+        Path strayTmp = target.resolveSibling(target.getFileName() + ".tmp-1234");
+        Files.write(strayTmp, new byte[]{1, 2, 3});
+        Path strayUpload = Files.createDirectories(root.resolve(".uploads").resolve("dead-upload"));
+        Files.write(strayUpload.resolve("1"), new byte[]{4});
+
+        store.init();
+
+        assertThat(strayTmp).doesNotExist();
+        assertThat(strayUpload).doesNotExist();
+        assertThat(store.getBytes(KEY)).isEqualTo(object);
+    }
+
+    @Test
+    void missingObjectAndEscapingKeyAreRejected() {
+        assertThatThrownBy(() -> store.getAsync("v1/cas/none").join())
+                .isInstanceOf(CompletionException.class)
+                .hasMessageContaining("Object not found");
+        assertThatThrownBy(() -> store.path("../../etc/passwd"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
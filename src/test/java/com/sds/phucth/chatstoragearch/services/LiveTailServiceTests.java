@@ -0,0 +1,191 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sds.phucth.chatstoragearch.config.KafkaConfig;
+import com.sds.phucth.chatstoragearch.models.MessageRef;
+import com.sds.phucth.chatstoragearch.utils.CanonicalJson;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@SpringJUnitConfig
+@EmbeddedKafka(partitions = 1, topics = "msg.written", bootstrapServersProperty = "spring.kafka.bootstrap-servers")
+@TestPropertySource(properties = "topic.write=msg.written")
+class LiveTailServiceTests {
+
+    @Configuration
+    @EnableKafka
+    @Import({KafkaConfig.class, LiveTailService.class})
+    static class Config {
+        @Bean
+        ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+    }
+
+    @MockitoBean
+    ReaderService readerService;
+
+    @MockitoBean
+    DecodedRecordCache decodedRecordCache;
+
+    @Autowired
+    LiveTailService liveTailService;
+
+    @Autowired
+    KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Autowired
+    KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    EmbeddedKafkaBroker broker;
+
+    @Test
+    void backfillsFromSeqThenPushesLiveRecordsInOrderWithoutDuplicates() throws Exception {
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(container, broker.getPartitionsPerTopic());
+        }
+        MessageRef backfilled = MessageRef.builder().id("m2").conversationId("c1").seq(2).build();
+        when(readerService.openRawWindow(eq("c1"), eq(1L), anyInt(), eq(true)))
+                .thenReturn(new ReaderService.RawWindow("c1", List.of(backfilled),
+                        Map.of("m2", CompletableFuture.completedFuture(bytes("{\"seq\":2}")))));
+        when(decodedRecordCache.getAllRaw(anyList())).thenAnswer(inv -> {
+            List<String> ids = inv.getArgument(0);
+            return ids.contains("m3") ? Map.of("m3", bytes("{\"seq\":3}")) : Map.of();
+        });
+
+        CapturingEmitter emitter = new CapturingEmitter();
+        liveTailService.subscribe("c1", 1L, emitter);
+
+        publish("c1", "m2", 2);   // đã có trong backfill -> bỏ
+        publish("other", "x9", 9); // không ai nghe
+        publish("c1", "m3", 3);
+
+        await().untilAsserted(() -> assertThat(emitter.ids()).containsExactly("2", "3"));
+        assertThat(emitter.frames.get(1)).contains("data:{\"seq\":3}");
+    }
+
+    @Test
+    void deliversSeqsPublishedOutOfOrderOnce() throws Exception {
+        awaitAssignment();
+        cacheHasEveryRecord();
+
+        CapturingEmitter emitter = new CapturingEmitter();
+        liveTailService.subscribe("c2", null, emitter);
+
+        // 2 writer đồng thời: seq 6 publish trước seq 5; 6 bị gửi lại (at-least-once)
+        publish("c2", "m6", 6);
+        publish("c2", "m5", 5);
+        publish("c2", "m6", 6);
+        publish("c2", "m7", 7);
+
+        await().untilAsserted(() -> assertThat(emitter.ids()).containsExactly("6", "5", "7"));
+    }
+
+    @Test
+    void slowSubscriberDoesNotStallOtherConversations() throws Exception {
+        awaitAssignment();
+        cacheHasEveryRecord();
+
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingEmitter slow = new BlockingEmitter(release);
+        CapturingEmitter fast = new CapturingEmitter();
+        liveTailService.subscribe("c3", null, slow);
+        liveTailService.subscribe("c4", null, fast);
+
+        publish("c3", "s1", 1);
+        publish("c3", "s2", 2);
+        publish("c4", "f1", 1);
+
+        // c3 đang kẹt trong send, c4 vẫn nhận được
+        await().untilAsserted(() -> assertThat(fast.ids()).containsExactly("1"));
+        assertThat(slow.ids()).isEmpty();
+
+        release.countDown();
+        await().untilAsserted(() -> assertThat(slow.ids()).containsExactly("1", "2"));
+    }
+
+    private void awaitAssignment() {
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(container, broker.getPartitionsPerTopic());
+        }
+    }
+
+    private void cacheHasEveryRecord() {
+        when(decodedRecordCache.getAllRaw(anyList())).thenAnswer(inv -> {
+            List<String> ids = inv.getArgument(0);
+            return ids.stream().collect(Collectors.toMap(id -> id, id -> bytes("{\"msgId\":\"" + id + "\"}")));
+        });
+    }
+
+    private void publish(String conversationId, String msgId, long seq) throws Exception {
+        kafkaTemplate.send("msg.written", conversationId, CanonicalJson.toCanonicalBytes(
+                Map.of("msgId", msgId, "conversationId", conversationId, "seq", seq, "hash", "h"))).get();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static class CapturingEmitter extends SseEmitter {
+        final List<String> frames = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            frames.add(builder.build().stream().map(d -> String.valueOf(d.getData())).collect(Collectors.joining()));
+        }
+
+        List<String> ids() {
+            return frames.stream()
+                    .map(f -> f.substring(f.indexOf("id:") + 3, f.indexOf('\n', f.indexOf("id:"))))
+                    .toList();
+        }
+    }
+
+    static class BlockingEmitter extends CapturingEmitter {
+        final CountDownLatch release;
+
+        BlockingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.send(builder);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.sds.phucth.chatstoragearch.utils.ByteBuffers;
+import com.sds.phucth.chatstoragearch.utils.FetchLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SegmentBlockCacheTests {
+    private static final String KEY = "v1/seg/default/2025-01/c1/seg-X.jsonl.zst";
+
+    private final byte[] object = new byte[1000];
+    private final BlobStore blobStore = mock(BlobStore.class);
+    private SegmentBlockCache cache;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < object.length; i++) {
+            object[i] = (byte) i;
+        }
+        when(blobStore.rangeGetAsync(eq(KEY), anyLong(), anyLong())).thenAnswer(inv -> {
+            long from = inv.getArgument(1);
+            long to = Math.min(inv.<Long>getArgument(2), object.length - 1);
+            return CompletableFuture.completedFuture(ByteBuffer.wrap(Arrays.copyOfRange(object, (int) from, (int) to + 1)));
+        });
+        cache = new SegmentBlockCache(blobStore, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "alignment", 128);
+        ReflectionTestUtils.setField(cache, "memoryMaxBytes", 1L << 20);
+        cache.init();
+    }
+
+    @Test
+    void servesRangesAcrossBlocksAndReusesCachedBlocks() {
+        FetchLimiter limiter = new FetchLimiter(4);
+
+        byte[] first = ByteBuffers.toArray(cache.rangeGet(KEY, 100, 300, limiter).join());
+        assertThat(first).isEqualTo(Arrays.copyOfRange(object, 100, 301));
+
+        // nằm gọn trong block đã cache -> không gọi S3 nữa
+        byte[] second = ByteBuffers.toArray(cache.rangeGet(KEY, 130, 200, limiter).join());
+        assertThat(second).isEqualTo(Arrays.copyOfRange(object, 130, 201));
+        verify(blobStore, times(1)).rangeGetAsync(eq(KEY), anyLong(), anyLong());
+
+        // block cuối của object ngắn hơn alignment
+        byte[] tail = ByteBuffers.toArray(cache.rangeGet(KEY, 900, 999, limiter).join());
+        assertThat(tail).isEqualTo(Arrays.copyOfRange(object, 900, 1000));
+    }
+
+    @Test
+    void concurrentMissesOfTheSameBlockKeepOneFileOnDisk(@TempDir Path diskDir) throws Exception {
+        ReflectionTestUtils.setField(cache, "diskDir", diskDir.toString());
+        ReflectionTestUtils.setField(cache, "diskMaxBytes", 1L << 20);
+        cache.init();
+        FetchLimiter limiter = new FetchLimiter(16);
+
+        // S3 trả về sau khi cả 16 lời gọi đã miss -> 16 lần ghi cùng block 0 xuống disk
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        when(blobStore.rangeGetAsync(eq(KEY), anyLong(), anyLong())).thenAnswer(inv -> gate.thenApply(v ->
+                ByteBuffer.wrap(Arrays.copyOfRange(object, 0, 128))));
+        List<CompletableFuture<ByteBuffer>> reads = IntStream.range(0, 16)
+                .mapToObj(i -> cache.rangeGet(KEY, 10, 20, limiter))
+                .toList();
+        gate.complete(null);
+        reads.forEach(CompletableFuture::join);
+        verify(blobStore, times(16)).rangeGetAsync(eq(KEY), anyLong(), anyLong());
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> blockFiles(diskDir, ".blk") == 1 && blockFiles(diskDir, ".tmp") == 0);
+        ((Cache<?, ?>) ReflectionTestUtils.getField(cache, "memory")).invalidateAll();
+        ((Cache<?, ?>) ReflectionTestUtils.getField(cache, "disk")).cleanUp();
+
+        // bộ nhớ trống -> đọc lại từ file trên disk, không gọi S3 thêm
+        clearInvocations(blobStore);
+        byte[] again = ByteBuffers.toArray(cache.rangeGet(KEY, 10, 20, limiter).join());
+        assertThat(again).isEqualTo(Arrays.copyOfRange(object, 10, 21));
+        verify(blobStore, never()).rangeGetAsync(eq(KEY), anyLong(), anyLong());
+        assertThat(blockFiles(diskDir, ".blk")).isEqualTo(1);
+    }
+
+    private static long blockFiles(Path dir, String suffix) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(p -> p.toString().endsWith(suffix)).count();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.dto.SegmentIndex;
+import com.sds.phucth.chatstoragearch.utils.SegmentFooter;
+import com.sds.phucth.chatstoragearch.utils.Ulids;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentFooterReaderTests {
+    @TempDir
+    Path root;
+
+    private FileSystemBlobStore blobStore;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        blobStore = new FileSystemBlobStore();
+        ReflectionTestUtils.setField(blobStore, "rootDir", root.toString());
+        ReflectionTestUtils.setField(blobStore, "fsync", false);
+        ReflectionTestUtils.setField(blobStore, "mappedFiles", 16);
+        blobStore.init();
+    }
+
+    @Test
+    void opensSegmentFromItsOwnFooterWithOrWithoutSecondRangeGet() {
+        String segUlid = Ulids.newUlid();
+        List<IndexEntry> entries = putSegment("seg-a", 500);
+
+        for (int tailBytes : new int[]{65536, 64}) {
+            SegmentFooterReader reader = reader(tailBytes, 1 << 20);
+            SegmentFooter footer = reader.footer("seg-a").join();
+            assertThat(footer.entries()).containsExactlyElementsOf(entries);
+            assertThat(reader.lookup("seg-a", 10 + 2 * 123L).join()).contains(entries.get(123));
+            assertThat(reader.lookup("seg-a", 11).join()).isEmpty();
+        }
+
+        String dataKey = reader(64, 1 << 20).dataKeyFor("c1", segUlid);
+        assertThat(dataKey).contains("/default/" + YearMonth.now(ZoneOffset.UTC) + "/c1/").contains(segUlid);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cacheIsBoundedByFooterBytes() {
+        int footerBytes = SegmentFooter.encode(index(putSegment("seg-0", 1000)), 0).length;
+        for (int i = 1; i < 8; i++) {
+            putSegment("seg-" + i, 1000);
+        }
+        // chỗ cho ~3 footer
+        SegmentFooterReader reader = reader(65536, 3L * footerBytes);
+        for (int i = 0; i < 8; i++) {
+            reader.footer("seg-" + i).join();
+        }
+
+        Cache<String, SegmentFooter> footers = (Cache<String, SegmentFooter>) ReflectionTestUtils.getField(reader, "footers");
+        footers.cleanUp();
+        long weighted = footers.policy().eviction().orElseThrow().weightedSize().orElseThrow();
+        assertThat(weighted).isPositive().isLessThanOrEqualTo(3L * footerBytes);
+    }
+
+    private SegmentFooterReader reader(int tailBytes, long cacheBytes) {
+        SegmentFooterReader reader = new SegmentFooterReader(blobStore);
+        ReflectionTestUtils.setField(reader, "prefix", "v1");
+        ReflectionTestUtils.setField(reader, "footerTailBytes", tailBytes);
+        ReflectionTestUtils.setField(reader, "footerCacheBytes", cacheBytes);
+        reader.init();
+        return reader;
+    }
+
+    // frames giả + footer + trailer, đúng bố cục compaction ghi
+    private List<IndexEntry> putSegment(String key, int count) {
+        List<IndexEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(IndexEntry.builder()
+                    .msgId(Ulids.newUlid())
+                    .seq(10 + 2L * i)
+                    .offset(i * 100L)
+                    .length(100)
+                    .createdAt(1_700_000_000_000L + i)
+                    .build());
+        }
+        byte[] frames = new byte[count * 100];
+        byte[] footer = SegmentFooter.encode(index(entries), frames.length);
+        blobStore.putBytes(key, ByteBuffer.allocate(frames.length + footer.length).put(frames).put(footer).array(),
+                "application/zstd");
+        return entries;
+    }
+
+    private static SegmentIndex index(List<IndexEntry> entries) {
+        return SegmentIndex.builder().formatVersion(1).dictId(0L).entries(entries).build();
+    }
+}
@@ -0,0 +1,50 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StageMetricsTests {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private StageMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new StageMetrics(registry);
+        ReflectionTestUtils.setField(metrics, "histograms", true);
+        metrics.init();
+    }
+
+    @Test
+    void seriesAreFixedUpFrontAndTaggedByStage() {
+        int meters = registry.getMeters().size();
+        for (int i = 0; i < 1000; i++) {
+            metrics.time(StageMetrics.Stage.SEQ_ALLOC, () -> 1L);
+            metrics.record(StageMetrics.Volume.READ_FETCHED, i);
+        }
+
+        assertThat(registry.getMeters()).hasSize(meters);
+        assertThat(meters).isEqualTo(StageMetrics.Stage.values().length + StageMetrics.Volume.values().length);
+        assertThat(registry.get("write.stage").tag("stage", "seq_alloc").timer().count()).isEqualTo(1000);
+        assertThat(registry.get("read.bytes").tag("kind", "fetched").summary().totalAmount()).isEqualTo(499500);
+    }
+
+    @Test
+    void asyncStageIsRecordedOnCompletion() {
+        CompletableFuture<String> ack = new CompletableFuture<>();
+        metrics.timeAsync(StageMetrics.Stage.KAFKA_SEND, ack);
+        assertThat(registry.get("write.stage").tag("stage", "kafka_send").timer().count()).isZero();
+
+        ack.completeExceptionally(new IllegalStateException("broker down"));
+
+        var timer = registry.get("write.stage").tag("stage", "kafka_send").timer();
+        assertThat(timer.count()).isEqualTo(1);
+        assertThat(timer.totalTime(TimeUnit.NANOSECONDS)).isPositive();
+    }
+}
@@ -0,0 +1,77 @@
+package com.sds.phucth.chatstoragearch.services;
+
+import com.sds.phucth.chatstoragearch.utils.ZstdCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ZstdDictionaryServiceTests {
+    private final BlobStore blobStore = mock(BlobStore.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private ZstdDictionaryService service;
+
+    @BeforeEach
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString())).thenReturn(true);
+        when(blobStore.putBytesIfAbsent(anyString(), any(), anyString())).thenCallRealMethod();
+        service = new ZstdDictionaryService(blobStore, redis);
+        ReflectionTestUtils.setField(service, "prefix", "v1");
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "minSamples", 100);
+        ReflectionTestUtils.setField(service, "maxSamples", 4096);
+        ReflectionTestUtils.setField(service, "maxSampleBytes", 1L << 20);
+        ReflectionTestUtils.setField(service, "dictSizeBytes", 16 * 1024);
+        ReflectionTestUtils.setField(service, "level", 3);
+    }
+
+    @Test
+    void takenDictionaryIdIsNeverOverwritten() {
+        // id đầu tiên đã có object (dictionary của tenant/tháng khác) -> phải chọn id khác
+        when(blobStore.putIfAbsentAsync(anyString(), any(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(false), CompletableFuture.completedFuture(true));
+
+        var dict = service.dictionaryFor("t1", "202501", 2000, ZstdDictionaryServiceTests::samples).orElseThrow();
+
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        verify(blobStore, times(2)).putIfAbsentAsync(keys.capture(), any(), anyString());
+        verify(blobStore, never()).putAsync(anyString(), any(), anyString());
+        assertThat(keys.getAllValues().get(1)).contains("/" + dict.dictId() + ".");
+        assertThat(keys.getAllValues().get(0)).isNotEqualTo(keys.getAllValues().get(1));
+        assertThat(dict.dictId()).isBetween(32768L, (long) Integer.MAX_VALUE);
+
+        // frame nén bằng dictionary mang đúng id đã lưu -> reader tìm được dictionary
+        byte[] plain = samples().get(7);
+        byte[] frame = ZstdCodec.compress(plain, dict.compress());
+        assertThat(ZstdCodec.dictId(frame)).isEqualTo(dict.dictId());
+        assertThat(service.decompress(frame)).isEqualTo(plain);
+    }
+
+    private static List<byte[]> samples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            samples.add(("{\"conversationId\":\"c-" + (i % 17) + "\",\"role\":\"assistant\",\"seq\":" + i
+                    + ",\"body\":\"tool call result " + (i * 31 % 97) + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        return samples;
+    }
+}
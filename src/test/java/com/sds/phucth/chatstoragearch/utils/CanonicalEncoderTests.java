@@ -0,0 +1,95 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sds.phucth.chatstoragearch.dto.ChatRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CanonicalEncoderTests {
+    // cách chuẩn hoá cũ (valueToTree + sắp TreeMap) -> hash CAS phải giữ nguyên
+    private static final ObjectMapper TREE = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .setPropertyNamingStrategy(PropertyNamingStrategies.LOWER_CAMEL_CASE)
+            .registerModule(new JavaTimeModule());
+
+    @Test
+    void matchesTreeSortedCanonicalFormAndHash() throws Exception {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("zeta", List.of(3, 1.5, "x", Map.of("b", 1, "a", 2)));
+        nested.put("alpha", null);
+        nested.put("Mid", true);
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("tool", "search");
+        meta.put("attempt", 2);
+        ChatRecord record = ChatRecord.builder()
+                .msgId(Ulids.newUlid())
+                .conversationId("c-1")
+                .seq(42)
+                .role("assistant")
+                .body(nested)
+                .meta(meta)
+                .createdAt(OffsetDateTime.of(2025, 1, 2, 3, 4, 5, 6_000_000, ZoneOffset.UTC))
+                .build();
+
+        byte[] expected = TREE.writeValueAsBytes(sort(TREE.valueToTree(record)));
+        CanonicalEncoder.Encoded encoded = CanonicalEncoder.encode(record, 6);
+
+        assertThat(new String(encoded.canonical())).isEqualTo(new String(expected));
+        assertThat(encoded.sha256Hex()).isEqualTo(Hashing.sha256Hex(expected));
+        assertThat(ZstdCodec.decompress(encoded.zstd())).isEqualTo(expected);
+    }
+
+    @Test
+    void sortsJsonNodeBodies() throws Exception {
+        JsonNode body = TREE.readTree("{\"b\":[{\"y\":1,\"x\":2}],\"a\":{\"d\":null,\"c\":\"v\"}}");
+
+        assertThat(new String(CanonicalJson.toCanonicalBytes(Map.of("body", body))))
+                .isEqualTo("{\"body\":{\"a\":{\"c\":\"v\",\"d\":null},\"b\":[{\"x\":2,\"y\":1}]}}");
+    }
+
+    @Test
+    void reusesPooledBuffersAcrossSizes() {
+        char[] big = new char[200_000];
+        Arrays.fill(big, 'q');
+        byte[] large = CanonicalEncoder.encode(Map.of("v", new String(big)), 3).canonical();
+        byte[] small = CanonicalEncoder.encode(Map.of("v", "s"), 3).canonical();
+
+        assertThat(large).hasSize(big.length + 8);
+        assertThat(new String(small)).isEqualTo("{\"v\":\"s\"}");
+    }
+
+    private static JsonNode sort(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode out = TREE.createObjectNode();
+            TreeMap<String, JsonNode> map = new TreeMap<>();
+            node.properties().forEach(e -> map.put(e.getKey(), sort(e.getValue())));
+            map.forEach(out::set);
+            return out;
+        }
+        if (node.isArray()) {
+            ArrayNode out = TREE.createArrayNode();
+            node.forEach(n -> out.add(sort(n)));
+            return out;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,47 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.sds.phucth.chatstoragearch.dto.IndexEntry;
+import com.sds.phucth.chatstoragearch.dto.SegmentIndex;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentFooterTests {
+
+    @Test
+    void roundTripsEntriesAndBinarySearchesBySeq() {
+        List<IndexEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(IndexEntry.builder()
+                    .msgId(Ulids.newUlid())
+                    .seq(10 + i * 2L)
+                    .offset(i * 500L)
+                    .length(500)
+                    .recordOffset(i % 2 == 0 ? i * 7 : 0)
+                    .recordLength(i % 2 == 0 ? 7 : 0)
+                    .createdAt(1_700_000_000_000L + i)
+                    .build());
+        }
+        SegmentIndex index = SegmentIndex.builder().formatVersion(2).dictId(42L).entries(entries).build();
+
+        byte[] frames = new byte[50_000];
+        byte[] footer = SegmentFooter.encode(index, frames.length);
+        ByteBuffer object = ByteBuffer.allocate(frames.length + footer.length).put(frames).put(footer).flip();
+
+        SegmentFooter.Trailer trailer = SegmentFooter.readTrailer(object.slice(object.limit() - 1024, 1024));
+        assertThat(trailer.footerOffset()).isEqualTo(frames.length);
+
+        SegmentFooter parsed = SegmentFooter.parse(object.slice((int) trailer.footerOffset(), trailer.footerLength()));
+        assertThat(parsed.formatVersion()).isEqualTo(2);
+        assertThat(parsed.dictId()).isEqualTo(42L);
+        assertThat(parsed.entries()).containsExactlyElementsOf(entries);
+
+        assertThat(parsed.indexOfSeq(30)).isEqualTo(10);
+        assertThat(parsed.indexOfSeq(31)).isNegative();
+        assertThat(parsed.entryAt(parsed.indexOfSeq(208)).getMsgId()).isEqualTo(entries.get(99).getMsgId());
+    }
+}
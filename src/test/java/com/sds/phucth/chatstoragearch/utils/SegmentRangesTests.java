@@ -0,0 +1,48 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.sds.phucth.chatstoragearch.dto.Slice;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentRangesTests {
+
+    @Test
+    void mergesAdjacentAndOverlappingSlicesOnly() {
+        List<Slice> slices = List.of(
+                slice(0, 10, "a"),
+                slice(10, 5, "b"),    // liền kề
+                slice(0, 10, "c"),    // cùng block v2
+                slice(40, 8, "d"));   // có khoảng trống
+
+        List<long[]> ranges = SegmentRanges.mergeConsecutiveRanges(slices);
+
+        assertThat(ranges).containsExactly(new long[]{0, 14}, new long[]{40, 47});
+        assertThat(SegmentRanges.containing(slices.get(1), ranges)).isEqualTo(new long[]{0, 14});
+        assertThat(SegmentRanges.containing(slice(12, 10, "x"), ranges)).isNull();
+    }
+
+    @Test
+    void framesAreViewsRelativeToTheFetchedBlock() {
+        byte[] object = new byte[64];
+        for (int i = 0; i < object.length; i++) {
+            object[i] = (byte) i;
+        }
+        // block = range [40, 47] của object, nằm sau 3 byte rác trong buffer
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        buffer.put(new byte[3]).put(object, 40, 8).flip().position(3);
+
+        ByteBuffer frame = SegmentRanges.frame(buffer, 40, slice(42, 4, "d"));
+
+        assertThat(frame.remaining()).isEqualTo(4);
+        assertThat(frame.get(0)).isEqualTo((byte) 42);
+        assertThat(frame.get(3)).isEqualTo((byte) 45);
+    }
+
+    private static Slice slice(long start, int length, String msgId) {
+        return Slice.builder().start(start).length(length).messageId(msgId).build();
+    }
+}
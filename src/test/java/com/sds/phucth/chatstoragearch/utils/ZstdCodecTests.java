@@ -0,0 +1,59 @@
+package com.sds.phucth.chatstoragearch.utils;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZstdCodecTests {
+
+    @Test
+    void decompressesSlicesOfHeapAndDirectBlocks() {
+        byte[] plain = "{\"msgId\":\"01J\",\"body\":\"hello hello hello\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] frame = ZstdCodec.compress(plain, 6);
+        byte[] block = new byte[frame.length + 20];
+        System.arraycopy(frame, 0, block, 7, frame.length);
+
+        ByteBuffer heap = ByteBuffer.wrap(block).slice(7, frame.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(block.length).put(block).flip().slice(7, frame.length);
+
+        assertThat(ZstdCodec.decompress(heap)).isEqualTo(plain);
+        assertThat(ZstdCodec.decompress(direct)).isEqualTo(plain);
+        assertThat(ZstdCodec.dictId(heap)).isZero();
+    }
+
+    @Test
+    void readsDictIdFromFrameHeaderAndDecodesWithDictionary() {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1 << 20, 16 * 1024);
+        for (int i = 0; i < 2000; i++) {
+            trainer.addSample(("{\"conversationId\":\"c-" + (i % 17) + "\",\"role\":\"assistant\",\"seq\":" + i
+                    + ",\"body\":\"tool call result " + (i * 31 % 97) + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dict = trainer.trainSamples();
+        byte[] plain = "{\"conversationId\":\"c-3\",\"role\":\"assistant\",\"seq\":5,\"body\":\"tool call result 9\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] frame = ZstdCodec.compress(plain, new ZstdDictCompress(dict, 3));
+
+        assertThat(ZstdCodec.dictId(ByteBuffer.wrap(frame))).isEqualTo(Zstd.getDictIdFromDict(dict));
+        assertThat(ZstdCodec.decompress(ByteBuffer.wrap(frame), new ZstdDictDecompress(dict))).isEqualTo(plain);
+    }
+
+    @Test
+    void fallsBackToStreamingWhenContentSizeIsUnknown() throws Exception {
+        byte[] plain = "streamed without pledged size".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZstdOutputStream zout = new ZstdOutputStream(out)) {
+            zout.write(plain);
+        }
+
+        assertThat(ZstdCodec.decompress(out.toByteArray())).isEqualTo(plain);
+    }
+}